@@ -10,7 +10,10 @@ import lombok.Getter;
 @AllArgsConstructor
 @Getter
 public enum CompressTypeEnum {
-    GZIP((byte) 0x01, "gzip");
+    NONE((byte) 0x00, "none"),
+    GZIP((byte) 0x01, "gzip"),
+    LZ4((byte) 0x02, "lz4"),
+    SNAPPY((byte) 0x03, "snappy");
 
     private final byte code;
     private final String name;
@@ -23,4 +26,13 @@ public enum CompressTypeEnum {
         }
         return null;
     }
+
+    public static byte getCode(String name) {
+        for (CompressTypeEnum c : CompressTypeEnum.values()) {
+            if (c.getName().equals(name)) {
+                return c.code;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compress type: " + name);
+    }
 }
@@ -11,7 +11,119 @@ import lombok.Getter;
 @Getter
 public enum RpcConfigEnum {
     RPC_CONFIG_PATH("rpc.properties"),
-    ZK_ADDRESS("rpc.zookeeper.address");
+    ZK_ADDRESS("rpc.zookeeper.address"),
+    /**
+     * 客户端默认使用的序列化方式
+     */
+    SERIALIZER("rpc.serializer"),
+    /**
+     * 默认使用的压缩算法
+     */
+    COMPRESS_TYPE("rpc.compress.type"),
+    /**
+     * 消息体（序列化后）达到该字节数才进行压缩
+     */
+    COMPRESS_THRESHOLD("rpc.compress.threshold"),
+    /**
+     * 压缩后与压缩前的大小之比超过该值时，认为压缩收益太低，改为不压缩发送
+     */
+    COMPRESS_MAX_RATIO("rpc.compress.max-ratio"),
+    /**
+     * 消息体超过该字节数时拆分为多个分片帧发送
+     */
+    CHUNK_SIZE("rpc.chunk.size"),
+    /**
+     * 分片重组后允许的最大消息体字节数
+     */
+    MAX_MESSAGE_SIZE("rpc.max-message-size"),
+    /**
+     * 客户端调用的默认超时时间（毫秒）
+     */
+    TIMEOUT("rpc.timeout"),
+    /**
+     * 客户端到每个服务地址的最大连接数
+     */
+    MAX_CONNECTIONS("rpc.connections.max"),
+    /**
+     * 连接池选择连接的方式：round-robin 或 least-pending
+     */
+    CONNECTION_SELECT("rpc.connections.select"),
+    /**
+     * 连接上连续超时的请求数达到该值时，认为连接不健康并将其关闭
+     */
+    CONNECTION_MAX_TIMEOUTS("rpc.connections.max-timeouts"),
+    /**
+     * 为 true 时，创建代理后预先与服务的所有提供者建立连接
+     */
+    CONNECTION_WARMUP("rpc.connections.warmup"),
+    /**
+     * 合并刷新时最多攒多少帧后立即刷新，小于等于 1 时每条消息单独刷新
+     */
+    FLUSH_MAX_MESSAGES("rpc.flush.max-messages"),
+    /**
+     * 合并刷新时 flush 最多推迟的微秒数，为 0 时推迟到事件循环的下一轮
+     */
+    FLUSH_DELAY_MICROS("rpc.flush.delay-micros"),
+    /**
+     * 同一连接上最多合并多少个请求为一个批量请求帧，小于等于 1 时不合并
+     */
+    BATCH_MAX_SIZE("rpc.batch.max-size"),
+    /**
+     * 合并请求的时间窗口（微秒），为 0 时合并事件循环一轮内到达的请求
+     */
+    BATCH_WINDOW_MICROS("rpc.batch.window-micros"),
+    /**
+     * 客户端代理的实现方式，bytebuddy（默认，生成代理类）或 jdk（JDK 动态代理）
+     */
+    PROXY("rpc.proxy"),
+    /**
+     * 每个连接上最多未完成的请求数，小于等于 0 时不限制
+     */
+    MAX_IN_FLIGHT_PER_CHANNEL("rpc.backpressure.max-in-flight-per-channel"),
+    /**
+     * 每个服务地址（提供者）上最多未完成的请求数，小于等于 0 时不限制
+     */
+    MAX_IN_FLIGHT_PER_PROVIDER("rpc.backpressure.max-in-flight-per-provider"),
+    /**
+     * 连接饱和时新请求的处理方式：block、queue（默认）或 fail
+     */
+    BACKPRESSURE_POLICY("rpc.backpressure.policy"),
+    /**
+     * 连接饱和时每个服务地址最多排队等待的请求数
+     */
+    BACKPRESSURE_QUEUE_SIZE("rpc.backpressure.queue-size"),
+    /**
+     * 写缓冲区低水位（字节）
+     */
+    WRITE_BUFFER_LOW_WATER_MARK("rpc.write-buffer.low-water-mark"),
+    /**
+     * 写缓冲区高水位（字节），超过后连接不可写
+     */
+    WRITE_BUFFER_HIGH_WATER_MARK("rpc.write-buffer.high-water-mark"),
+    /**
+     * 对冲请求数占可对冲调用数的最大比例
+     */
+    HEDGE_BUDGET("rpc.hedge.budget"),
+    /**
+     * 未配置对冲等待时间时，使用最近调用耗时的该百分位数
+     */
+    HEDGE_PERCENTILE("rpc.hedge.percentile"),
+    /**
+     * 传输实现：auto（默认，epoll 可用时使用 epoll）、epoll 或 nio
+     */
+    TRANSPORT("rpc.transport"),
+    /**
+     * 服务端绑定的 acceptor 数，大于 1 时（仅 epoll）以 SO_REUSEPORT 多次绑定同一端口，由内核在多个 acceptor 之间分配新连接
+     */
+    SERVER_ACCEPTORS("rpc.server.acceptors"),
+    /**
+     * 是否开启 TCP_QUICKACK（仅 epoll）
+     */
+    TCP_QUICKACK("rpc.tcp.quickack"),
+    /**
+     * 服务端 TCP_FASTOPEN 队列长度，大于 0 时开启 TCP Fast Open（仅 epoll）
+     */
+    TCP_FASTOPEN("rpc.tcp.fastopen");
 
     private final String propertyValue;
 }
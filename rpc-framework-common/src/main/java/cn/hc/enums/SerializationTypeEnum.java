@@ -12,7 +12,8 @@ import lombok.Getter;
 public enum SerializationTypeEnum {
     KYRO((byte) 0x01, "kyro"),
     PROTOSTUFF((byte) 0x02, "protostuff"),
-    HESSIAN((byte) 0X03, "hessian");
+    HESSIAN((byte) 0X03, "hessian"),
+    HESSIAN2((byte) 0x04, "hessian2");
 
     private final byte code;
     private final String name;
@@ -25,4 +26,13 @@ public enum SerializationTypeEnum {
         }
         return null;
     }
+
+    public static byte getCode(String name) {
+        for (SerializationTypeEnum c : SerializationTypeEnum.values()) {
+            if (c.getName().equals(name)) {
+                return c.code;
+            }
+        }
+        throw new IllegalArgumentException("Unknown serialization type: " + name);
+    }
 }
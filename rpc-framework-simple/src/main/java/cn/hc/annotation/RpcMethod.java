@@ -0,0 +1,78 @@
+package cn.hc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法级别的引用配置，在 {@link RpcReference#methods()} 中使用
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface RpcMethod {
+    /**
+     * 方法名，同名的重载方法共用同一配置
+     *
+     * @return
+     */
+    String name();
+
+    /**
+     * 调用超时时间（毫秒），小于等于 0 时使用服务级别的超时时间
+     *
+     * @return
+     */
+    long timeout() default 0;
+
+    /**
+     * 单向调用：只发送请求，服务端不返回响应。只对返回值为 void 的方法生效，
+     * 握手完成前或协商出 v1 协议时退化为普通调用
+     *
+     * @return
+     */
+    boolean oneway() default false;
+
+    /**
+     * 合并相同的并发调用：同一方法、参数相等（按 Arrays.deepEquals 比较）的调用在前一个调用完成前共享同一次远程调用的结果。
+     * 只适用于幂等的方法
+     *
+     * @return
+     */
+    boolean singleFlight() default false;
+
+    /**
+     * 结果缓存的存活时间（毫秒），大于 0 时开启本地结果缓存：以方法和参数（按 Arrays.deepEquals 比较）为 key 缓存返回值，
+     * 优先于服务级别的配置。只适用于结果很少变化的只读方法，返回值 void 或 null 的调用不缓存。
+     * 参数对象和返回值都按引用缓存，不做拷贝：参数和返回值应为不可变类型。调用后修改参数对象会使对应的缓存条目无法命中，修改返回的对象会影响之后命中缓存的调用
+     *
+     * @return
+     */
+    long cacheTtl() default 0;
+
+    /**
+     * 结果缓存的最大条目数，超过时淘汰最近最少使用的条目
+     *
+     * @return
+     */
+    long cacheSize() default 1000;
+
+    /**
+     * 对冲请求：超过 hedgeDelay 仍未收到响应时，向另一个服务提供者发送相同的请求，以先返回的成功响应为准。
+     * 只适用于幂等的方法，对冲请求的比例受 rpc.hedge.budget 限制
+     *
+     * @return
+     */
+    boolean hedge() default false;
+
+    /**
+     * 发出对冲请求前等待的时间（毫秒），小于等于 0 时使用该方法最近调用耗时的百分位数（rpc.hedge.percentile，默认 p95）
+     *
+     * @return
+     */
+    long hedgeDelay() default 0;
+}
@@ -26,4 +26,48 @@ public @interface RpcReference {
      * @return
      */
     String group() default "";
+
+    /**
+     * 服务使用的压缩算法（如 gzip、lz4、snappy），为空时使用 rpc.properties 中配置的默认压缩算法
+     *
+     * @return
+     */
+    String compress() default "";
+
+    /**
+     * 请求使用的序列化方式（如 hessian、kyro），为空时使用 rpc.properties 中配置的默认序列化方式。
+     * 服务端总是使用请求的序列化方式返回响应
+     *
+     * @return
+     */
+    String serializer() default "";
+
+    /**
+     * 调用超时时间（毫秒），小于等于 0 时使用 rpc.properties 中配置的默认超时时间
+     *
+     * @return
+     */
+    long timeout() default 0;
+
+    /**
+     * 方法级别的配置
+     *
+     * @return
+     */
+    RpcMethod[] methods() default {};
+
+    /**
+     * 结果缓存的存活时间（毫秒），大于 0 时为该服务的所有方法开启本地结果缓存，方法级别的配置优先。
+     * 缓存的限制见 {@link RpcMethod#cacheTtl()}
+     *
+     * @return
+     */
+    long cacheTtl() default 0;
+
+    /**
+     * 每个方法的结果缓存的最大条目数
+     *
+     * @return
+     */
+    long cacheSize() default 1000;
 }
@@ -26,4 +26,11 @@ public @interface RpcService {
      * @return
      */
     String group() default "";
+
+    /**
+     * 服务使用的压缩算法（如 gzip、lz4、snappy），为空时使用 rpc.properties 中配置的默认压缩算法
+     *
+     * @return
+     */
+    String compress() default "";
 }
@@ -0,0 +1,246 @@
+package cn.hc.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 分块压缩的基类，适用于 lz4、snappy 这类按块压缩的算法
+ * <p>
+ * 数据被切分为最大 64KB 的块，每个块的格式为：4B 原始长度 + 4B 压缩后长度 + 压缩后的数据。
+ * 压缩后长度等于原始长度时表示该块未压缩（压缩无收益），按原样存储
+ * <p>
+ * 块缓冲区按线程复用，不会为每条消息重新分配。因此同一线程同一时刻只能打开一个压缩流和一个解压流，
+ * 这与编解码器在 IO 线程上逐条处理消息的方式一致
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+public abstract class AbstractBlockCompress implements Compress {
+    protected static final int BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCK_HEADER_LENGTH = 8;
+
+    private final ThreadLocal<BlockBuffers> compressBuffers = ThreadLocal.withInitial(() -> new BlockBuffers(maxCompressedLength(BLOCK_SIZE)));
+    private final ThreadLocal<BlockBuffers> decompressBuffers = ThreadLocal.withInitial(() -> new BlockBuffers(maxCompressedLength(BLOCK_SIZE)));
+
+    /**
+     * 长度为 rawLength 的数据压缩后可能的最大长度
+     *
+     * @param rawLength
+     * @return
+     */
+    protected abstract int maxCompressedLength(int rawLength);
+
+    /**
+     * 压缩一个块
+     *
+     * @param src    原始数据
+     * @param srcLen 原始数据长度
+     * @param dest   压缩结果，容量不小于 maxCompressedLength(srcLen)
+     * @return 压缩后的长度
+     * @throws IOException
+     */
+    protected abstract int compressBlock(byte[] src, int srcLen, byte[] dest) throws IOException;
+
+    /**
+     * 解压一个块
+     *
+     * @param src     压缩数据
+     * @param srcLen  压缩数据长度
+     * @param dest    解压结果
+     * @param destLen 原始数据长度
+     * @throws IOException
+     */
+    protected abstract void decompressBlock(byte[] src, int srcLen, byte[] dest, int destLen) throws IOException;
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            OutputStream compressOutputStream = compress(out);
+            compressOutputStream.write(bytes);
+            compressOutputStream.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("block compress error", e);
+        }
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        return new BlockOutputStream(out, compressBuffers.get());
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        try (InputStream in = decompress(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("block decompress error", e);
+        }
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return new BlockInputStream(in, decompressBuffers.get());
+    }
+
+    /**
+     * 线程私有的块缓冲区
+     */
+    private static class BlockBuffers {
+        private final byte[] raw = new byte[BLOCK_SIZE];
+        private final byte[] compressed;
+        private final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+
+        BlockBuffers(int maxCompressedLength) {
+            this.compressed = new byte[maxCompressedLength];
+        }
+    }
+
+    private class BlockOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final BlockBuffers buffers;
+        private int position;
+
+        BlockOutputStream(OutputStream out, BlockBuffers buffers) {
+            this.out = out;
+            this.buffers = buffers;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == BLOCK_SIZE) {
+                writeBlock();
+            }
+            buffers.raw[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                int n = Math.min(len, BLOCK_SIZE - position);
+                System.arraycopy(b, off, buffers.raw, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * 写出剩余的数据，不关闭被包装的输出流
+         */
+        @Override
+        public void close() throws IOException {
+            if (position > 0) {
+                writeBlock();
+            }
+            out.flush();
+        }
+
+        private void writeBlock() throws IOException {
+            int compressedLength = compressBlock(buffers.raw, position, buffers.compressed);
+            // 压缩无收益时直接存储原始数据
+            byte[] block = compressedLength < position ? buffers.compressed : buffers.raw;
+            int blockLength = compressedLength < position ? compressedLength : position;
+
+            writeInt(buffers.header, 0, position);
+            writeInt(buffers.header, 4, blockLength);
+            out.write(buffers.header, 0, BLOCK_HEADER_LENGTH);
+            out.write(block, 0, blockLength);
+            position = 0;
+        }
+    }
+
+    private class BlockInputStream extends InputStream {
+        private final InputStream in;
+        private final BlockBuffers buffers;
+        private int position;
+        private int limit;
+
+        BlockInputStream(InputStream in, BlockBuffers buffers) {
+            this.in = in;
+            this.buffers = buffers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            return buffers.raw[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffers.raw, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        /**
+         * 读取并解压下一个块
+         *
+         * @return 是否还有数据
+         * @throws IOException
+         */
+        private boolean readBlock() throws IOException {
+            int n = in.readNBytes(buffers.header, 0, BLOCK_HEADER_LENGTH);
+            if (n == 0) {
+                return false;
+            }
+            if (n < BLOCK_HEADER_LENGTH) {
+                throw new EOFException("truncated block header");
+            }
+            int rawLength = readInt(buffers.header, 0);
+            int blockLength = readInt(buffers.header, 4);
+            if (rawLength <= 0 || rawLength > BLOCK_SIZE || blockLength <= 0 || blockLength > rawLength) {
+                throw new IOException("corrupted block, raw length: " + rawLength + ", block length: " + blockLength);
+            }
+            byte[] block = blockLength == rawLength ? buffers.raw : buffers.compressed;
+            if (in.readNBytes(block, 0, blockLength) < blockLength) {
+                throw new EOFException("truncated block");
+            }
+            if (blockLength < rawLength) {
+                decompressBlock(buffers.compressed, blockLength, buffers.raw, rawLength);
+            }
+            position = 0;
+            limit = rawLength;
+            return true;
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int index) {
+        return (bytes[index] & 0xFF) << 24 | (bytes[index + 1] & 0xFF) << 16 | (bytes[index + 2] & 0xFF) << 8 | (bytes[index + 3] & 0xFF);
+    }
+}
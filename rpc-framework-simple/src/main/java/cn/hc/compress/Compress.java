@@ -2,6 +2,12 @@ package cn.hc.compress;
 
 import cn.hc.extension.SPI;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * @author HCong
  * @create 2022/8/5
@@ -17,6 +23,23 @@ public interface Compress {
      */
     byte[] compress(byte[] bytes);
 
+    /**
+     * 流式压缩：返回一个包装了 out 的输出流，写入其中的数据会被压缩后写入 out。
+     * 调用方写完数据后必须调用返回流的 close() 以写出剩余的压缩数据，close() 不会关闭 out 本身
+     * <p>
+     * 默认实现先在内存中缓存数据，关闭时再整体压缩写出，支持流式压缩的实现应覆盖此方法
+     *
+     * @param out
+     * @return
+     */
+    default OutputStream compress(OutputStream out) {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                out.write(compress(toByteArray()));
+            }
+        };
+    }
 
     /**
      * 解压缩
@@ -25,4 +48,20 @@ public interface Compress {
      * @return
      */
     byte[] decompress(byte[] bytes);
+
+    /**
+     * 流式解压缩：返回一个包装了 in 的输入流，从中读取到的是解压后的数据，可直接交给序列化器读取
+     * <p>
+     * 默认实现先读取全部数据整体解压，支持流式解压的实现应覆盖此方法
+     *
+     * @param in
+     * @return
+     */
+    default InputStream decompress(InputStream in) {
+        try {
+            return new ByteArrayInputStream(decompress(in.readAllBytes()));
+        } catch (IOException e) {
+            throw new RuntimeException("decompress error", e);
+        }
+    }
 }
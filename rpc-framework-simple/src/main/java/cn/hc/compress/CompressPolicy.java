@@ -0,0 +1,81 @@
+package cn.hc.compress;
+
+import cn.hc.config.RpcConfig;
+import cn.hc.enums.CompressTypeEnum;
+import cn.hc.enums.RpcConfigEnum;
+import cn.hc.utils.StringUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 自适应压缩策略：
+ * <p>
+ * 1. 消息体小于阈值时不压缩，避免小消息付出压缩头部和压缩器初始化的开销
+ * 2. 压缩后与压缩前大小之比超过 maxRatio 时放弃压缩结果，以原始数据发送
+ * <p>
+ * 最终采用的压缩方式会写入协议头部的 compress 字节，接收方据此解压
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+@Slf4j
+@Getter
+public class CompressPolicy {
+    private static final int DEFAULT_THRESHOLD = 1024;
+    private static final double DEFAULT_MAX_RATIO = 0.9;
+
+    /**
+     * 默认使用的压缩方式，由发送方写入 RpcMessage
+     */
+    private final byte compressType;
+    /**
+     * 消息体达到该字节数才压缩
+     */
+    private final int threshold;
+    /**
+     * 可接受的最大压缩比（压缩后 / 压缩前）
+     */
+    private final double maxRatio;
+
+    public CompressPolicy() {
+        this.compressType = CompressTypeEnum.getCode(RpcConfig.getString(RpcConfigEnum.COMPRESS_TYPE, CompressTypeEnum.GZIP.getName()));
+        this.threshold = RpcConfig.getInt(RpcConfigEnum.COMPRESS_THRESHOLD, DEFAULT_THRESHOLD);
+        this.maxRatio = RpcConfig.getDouble(RpcConfigEnum.COMPRESS_MAX_RATIO, DEFAULT_MAX_RATIO);
+        log.info("compress policy: type [{}], threshold [{}], max ratio [{}]", CompressTypeEnum.getName(compressType), threshold, maxRatio);
+    }
+
+    /**
+     * 解析服务配置的压缩算法，未配置时使用默认压缩算法
+     *
+     * @param compressName
+     * @return
+     */
+    public byte resolve(String compressName) {
+        if (StringUtil.isBlank(compressName)) {
+            return compressType;
+        }
+        return CompressTypeEnum.getCode(compressName);
+    }
+
+    /**
+     * 是否需要尝试压缩
+     *
+     * @param compressType 发送方期望使用的压缩方式
+     * @param rawLength    未压缩的消息体长度
+     * @return
+     */
+    public boolean shouldCompress(byte compressType, int rawLength) {
+        return compressType != CompressTypeEnum.NONE.getCode() && rawLength >= threshold;
+    }
+
+    /**
+     * 压缩结果是否值得使用
+     *
+     * @param rawLength        未压缩的消息体长度
+     * @param compressedLength 压缩后的消息体长度
+     * @return
+     */
+    public boolean accept(int rawLength, int compressedLength) {
+        return compressedLength <= rawLength * maxRatio;
+    }
+}
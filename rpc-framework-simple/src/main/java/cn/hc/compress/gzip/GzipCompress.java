@@ -5,6 +5,8 @@ import cn.hc.compress.Compress;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -33,6 +35,24 @@ public class GzipCompress implements Compress {
         }
     }
 
+    @Override
+    public OutputStream compress(OutputStream out) {
+        try {
+            return new GZIPOutputStream(out, BUFFER_SIZE) {
+                /**
+                 * 只写出 gzip 尾部，不关闭被包装的输出流
+                 */
+                @Override
+                public void close() throws IOException {
+                    finish();
+                    def.end();
+                }
+            };
+        } catch (IOException e) {
+            throw new RuntimeException("gzip compress error", e);
+        }
+    }
+
     @Override
     public byte[] decompress(byte[] bytes) {
         if (bytes == null) {
@@ -50,4 +70,13 @@ public class GzipCompress implements Compress {
             throw new RuntimeException("gzip decompress error", e);
         }
     }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException("gzip decompress error", e);
+        }
+    }
 }
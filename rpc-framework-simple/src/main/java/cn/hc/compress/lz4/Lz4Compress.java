@@ -0,0 +1,45 @@
+package cn.hc.compress.lz4;
+
+import cn.hc.compress.AbstractBlockCompress;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.IOException;
+
+/**
+ * lz4 压缩：压缩率低于 gzip，但压缩和解压速度快得多，适合大消息
+ * <p>
+ * LZ4Compressor 和 LZ4SafeDecompressor 是无状态、线程安全的，全局共享同一个实例
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+public class Lz4Compress extends AbstractBlockCompress {
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+    private final LZ4Compressor compressor = FACTORY.fastCompressor();
+    private final LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+
+    @Override
+    protected int maxCompressedLength(int rawLength) {
+        return compressor.maxCompressedLength(rawLength);
+    }
+
+    @Override
+    protected int compressBlock(byte[] src, int srcLen, byte[] dest) {
+        return compressor.compress(src, 0, srcLen, dest, 0, dest.length);
+    }
+
+    @Override
+    protected void decompressBlock(byte[] src, int srcLen, byte[] dest, int destLen) throws IOException {
+        try {
+            if (decompressor.decompress(src, 0, srcLen, dest, 0, destLen) != destLen) {
+                throw new IOException("lz4 decompress error: length mismatch");
+            }
+        } catch (LZ4Exception e) {
+            throw new IOException("lz4 decompress error", e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cn.hc.compress.snappy;
+
+import cn.hc.compress.AbstractBlockCompress;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+/**
+ * snappy 压缩：与 lz4 类似，以压缩率换取速度
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+public class SnappyCompress extends AbstractBlockCompress {
+    @Override
+    protected int maxCompressedLength(int rawLength) {
+        return Snappy.maxCompressedLength(rawLength);
+    }
+
+    @Override
+    protected int compressBlock(byte[] src, int srcLen, byte[] dest) throws IOException {
+        return Snappy.compress(src, 0, srcLen, dest, 0);
+    }
+
+    @Override
+    protected void decompressBlock(byte[] src, int srcLen, byte[] dest, int destLen) throws IOException {
+        if (Snappy.uncompressedLength(src, 0, srcLen) != destLen) {
+            throw new IOException("snappy decompress error: length mismatch");
+        }
+        Snappy.uncompress(src, 0, srcLen, dest, 0);
+    }
+}
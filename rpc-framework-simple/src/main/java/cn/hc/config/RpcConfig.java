@@ -0,0 +1,62 @@
+package cn.hc.config;
+
+import cn.hc.enums.RpcConfigEnum;
+import cn.hc.utils.PropertiesFileUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Properties;
+
+/**
+ * 读取 rpc.properties 中的配置项，配置文件只加载一次
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+@Slf4j
+public final class RpcConfig {
+    private static final Properties PROPERTIES = load();
+
+    private RpcConfig() {
+    }
+
+    private static Properties load() {
+        Properties properties = PropertiesFileUtil.readPropertiesFile(RpcConfigEnum.RPC_CONFIG_PATH.getPropertyValue());
+        return properties != null ? properties : new Properties();
+    }
+
+    public static String getString(RpcConfigEnum key, String defaultValue) {
+        String value = PROPERTIES.getProperty(key.getPropertyValue());
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    public static int getInt(RpcConfigEnum key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.error("invalid value [{}] of config [{}], use default [{}]", value, key.getPropertyValue(), defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(RpcConfigEnum key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            log.error("invalid value [{}] of config [{}], use default [{}]", value, key.getPropertyValue(), defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(RpcConfigEnum key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
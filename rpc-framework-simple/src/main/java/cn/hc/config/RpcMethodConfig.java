@@ -0,0 +1,58 @@
+package cn.hc.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 方法级别的引用配置
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RpcMethodConfig {
+    /**
+     * 方法名
+     */
+    private String name;
+
+    /**
+     * 调用超时时间（毫秒），小于等于 0 时使用服务级别的超时时间
+     */
+    private long timeout;
+
+    /**
+     * 是否单向调用（只对返回值为 void 的方法生效）
+     */
+    private boolean oneway;
+
+    /**
+     * 是否合并相同的并发调用（只适用于幂等的方法）
+     */
+    private boolean singleFlight;
+
+    /**
+     * 结果缓存的存活时间（毫秒），小于等于 0 时使用服务级别的配置
+     */
+    private long cacheTtl;
+
+    /**
+     * 结果缓存的最大条目数
+     */
+    private long cacheSize;
+
+    /**
+     * 是否发送对冲请求（只适用于幂等的方法）
+     */
+    private boolean hedge;
+
+    /**
+     * 发出对冲请求前等待的时间（毫秒），小于等于 0 时使用最近调用耗时的百分位数
+     */
+    private long hedgeDelay;
+}
@@ -5,6 +5,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Map;
+
 /**
  * 服务的具体信息
  *
@@ -31,11 +33,53 @@ public class RpcServiceConfig {
      */
     private String group = "";
 
+    /**
+     * service 使用的压缩算法，为空时使用默认压缩算法
+     */
+    @Builder.Default
+    private String compress = "";
+
+    /**
+     * 客户端请求使用的序列化方式，为空时使用默认序列化方式
+     */
+    @Builder.Default
+    private String serializer = "";
+
+    /**
+     * 客户端调用的超时时间（毫秒），小于等于 0 时使用 rpc.properties 中配置的默认超时时间
+     */
+    private long timeout;
+
+    /**
+     * 方法级别的配置，key 为方法名
+     */
+    private Map<String, RpcMethodConfig> methods;
+
+    /**
+     * 结果缓存的存活时间（毫秒），小于等于 0 时不缓存
+     */
+    private long cacheTtl;
+
+    /**
+     * 每个方法的结果缓存的最大条目数
+     */
+    private long cacheSize;
+
 
     public String getRpcServiceName() {
         return this.getServiceName() + this.getGroup() + this.getVersion();
     }
 
+    /**
+     * 获取方法级别的配置
+     *
+     * @param methodName
+     * @return 没有配置时返回 null
+     */
+    public RpcMethodConfig getMethodConfig(String methodName) {
+        return methods == null ? null : methods.get(methodName);
+    }
+
     public String getServiceName() {
         return this.service.getClass().getInterfaces()[0].getCanonicalName();
     }
@@ -24,6 +24,14 @@ public interface ServiceProvider {
      */
     Object getService(String rpcServiceName);
 
+    /**
+     * 根据 rpcServiceName 获取 service 的配置信息
+     *
+     * @param rpcServiceName
+     * @return
+     */
+    RpcServiceConfig getServiceConfig(String rpcServiceName);
+
     /**
      * @param rpcServiceConfig
      */
@@ -5,8 +5,10 @@ import cn.hc.config.RpcServiceConfig;
 import cn.hc.enums.RpcErrorMessageEnum;
 import cn.hc.exception.RpcException;
 import cn.hc.extension.ExtensionLoader;
+import cn.hc.factory.SingletonFactory;
 import cn.hc.provider.ServiceProvider;
 import cn.hc.registry.ServiceRegistry;
+import cn.hc.remoting.handler.ServiceMethodTable;
 import cn.hc.remoting.transport.netty.server.NettyRpcServer;
 import lombok.extern.slf4j.Slf4j;
 
@@ -25,9 +27,9 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ZkServiceProviderImpl implements ServiceProvider {
     /**
      * key：rpc 服务名称
-     * value：服务对象
+     * value：服务配置（包含服务对象）
      */
-    private final Map<String, Object> serviceMap;
+    private final Map<String, RpcServiceConfig> serviceMap;
     /**
      * 已注册的服务
      */
@@ -36,11 +38,16 @@ public class ZkServiceProviderImpl implements ServiceProvider {
      * 提供服务注册功能
      */
     private final ServiceRegistry serviceRegistry;
+    /**
+     * 为服务方法分配方法 Id，供紧凑请求使用
+     */
+    private final ServiceMethodTable serviceMethodTable;
 
     public ZkServiceProviderImpl() {
         serviceMap = new ConcurrentHashMap<>();
         registeredService = ConcurrentHashMap.newKeySet();
         serviceRegistry = ExtensionLoader.getExtensionLoader(ServiceRegistry.class).getExtension("zk");
+        serviceMethodTable = SingletonFactory.getInstance(ServiceMethodTable.class);
     }
 
 
@@ -57,7 +64,8 @@ public class ZkServiceProviderImpl implements ServiceProvider {
         }
 
         registeredService.add(rpcServiceName);
-        serviceMap.put(rpcServiceName, rpcServiceConfig.getService());
+        serviceMap.put(rpcServiceName, rpcServiceConfig);
+        serviceMethodTable.register(rpcServiceConfig);
         log.info("Add service: {} and interfaces:{}", rpcServiceName, rpcServiceConfig.getService().getClass().getInterfaces());
     }
 
@@ -69,11 +77,22 @@ public class ZkServiceProviderImpl implements ServiceProvider {
      */
     @Override
     public Object getService(String rpcServiceName) {
-        Object service = serviceMap.get(rpcServiceName);
-        if (null == service) {
+        return getServiceConfig(rpcServiceName).getService();
+    }
+
+    /**
+     * 根据 rpcServiceName 获取服务配置
+     *
+     * @param rpcServiceName
+     * @return
+     */
+    @Override
+    public RpcServiceConfig getServiceConfig(String rpcServiceName) {
+        RpcServiceConfig rpcServiceConfig = serviceMap.get(rpcServiceName);
+        if (null == rpcServiceConfig) {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND);
         }
-        return service;
+        return rpcServiceConfig;
     }
 
     /**
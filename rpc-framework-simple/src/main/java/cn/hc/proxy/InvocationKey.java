@@ -0,0 +1,40 @@
+package cn.hc.proxy;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * 调用的标识：方法和参数，参数按 Arrays.deepEquals 比较。
+ * 保存的是参数数组的副本，调用方之后替换数组中的元素不会改变已有的 key；参数对象本身仍按引用保存
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+final class InvocationKey {
+    private final Method method;
+    private final Object[] args;
+    private final int hash;
+
+    InvocationKey(Method method, Object[] args) {
+        this.method = method;
+        this.args = args == null ? null : args.clone();
+        this.hash = 31 * method.hashCode() + Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof InvocationKey)) {
+            return false;
+        }
+        InvocationKey that = (InvocationKey) o;
+        return hash == that.hash && method.equals(that.method) && Arrays.deepEquals(args, that.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
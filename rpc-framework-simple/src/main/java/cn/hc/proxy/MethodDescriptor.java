@@ -0,0 +1,46 @@
+package cn.hc.proxy;
+
+import com.google.common.cache.Cache;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+
+/**
+ * 创建代理时为每个方法预先解析好的调用信息，调用时直接使用，不再反射获取类名、拷贝参数类型数组或拼接方法签名
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Getter
+@Builder
+class MethodDescriptor {
+    private final Method method;
+    private final String interfaceName;
+    private final String methodName;
+    private final Class<?>[] paramTypes;
+    private final String rpcServiceName;
+    /**
+     * 握手时协商方法 Id 使用的方法签名
+     */
+    private final String methodSignature;
+    /**
+     * 超时时间（毫秒），为 null 时使用传输层的默认超时时间
+     */
+    private final Long timeout;
+    private final boolean oneway;
+    private final boolean singleFlight;
+    /**
+     * 是否发送对冲请求，以及发出对冲请求前等待的时间（毫秒）
+     */
+    private final boolean hedge;
+    private final long hedgeDelay;
+    /**
+     * 返回值是否为异步类型（CompletableFuture、CompletionStage 或 Future）
+     */
+    private final boolean async;
+    /**
+     * 结果缓存，为 null 时不缓存
+     */
+    private final Cache<InvocationKey, Object> resultCache;
+}
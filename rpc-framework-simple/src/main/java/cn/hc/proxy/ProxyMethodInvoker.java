@@ -0,0 +1,25 @@
+package cn.hc.proxy;
+
+import net.bytebuddy.implementation.bind.annotation.AllArguments;
+import net.bytebuddy.implementation.bind.annotation.RuntimeType;
+
+/**
+ * 生成的代理类中每个方法委托的调用器，持有该方法预先解析好的调用信息
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+public class ProxyMethodInvoker {
+    private final RpcClientProxy rpcClientProxy;
+    private final MethodDescriptor methodDescriptor;
+
+    ProxyMethodInvoker(RpcClientProxy rpcClientProxy, MethodDescriptor methodDescriptor) {
+        this.rpcClientProxy = rpcClientProxy;
+        this.methodDescriptor = methodDescriptor;
+    }
+
+    @RuntimeType
+    public Object invoke(@AllArguments Object[] args) throws Throwable {
+        return rpcClientProxy.invoke(methodDescriptor, args);
+    }
+}
@@ -1,25 +1,56 @@
 package cn.hc.proxy;
 
+import cn.hc.compress.CompressPolicy;
+import cn.hc.config.RpcConfig;
+import cn.hc.config.RpcMethodConfig;
 import cn.hc.config.RpcServiceConfig;
+import cn.hc.enums.RpcConfigEnum;
 import cn.hc.enums.RpcErrorMessageEnum;
 import cn.hc.enums.RpcResponseCodeEnum;
+import cn.hc.enums.SerializationTypeEnum;
 import cn.hc.exception.RpcException;
+import cn.hc.factory.SingletonFactory;
+import cn.hc.remoting.RpcContext;
 import cn.hc.remoting.dto.RpcRequest;
 import cn.hc.remoting.dto.RpcResponse;
 import cn.hc.remoting.transport.RpcRequestTransport;
+import cn.hc.remoting.transport.netty.client.MethodIdTable;
 import cn.hc.remoting.transport.netty.client.NettyRpcClient;
+import cn.hc.utils.StringUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.MethodDelegation;
+import net.bytebuddy.matcher.ElementMatchers;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 动态代理类。
  * <p>
  * 当一个动态代理对象调用一个方法时，它实际上调用了下面的调用方法。正是由于动态代理，客户端调用的远程方法就像调用本地方法一样(中间进程是屏蔽的)
+ * <p>
+ * 默认使用 ByteBuddy 为每个接口生成一个实现类，同一接口的代理共用该类，每个方法直接委托给实例字段中持有该方法 {@link MethodDescriptor} 的调用器；
+ * 生成失败或 rpc.proxy=jdk 时退化为 JDK 动态代理，按 Method 查找预先解析好的 MethodDescriptor
  *
  * @author HCong
  * @create 2022/8/6
@@ -31,6 +62,27 @@ public class RpcClientProxy implements InvocationHandler {
      */
     private static final String INTERFACE_NAME = "interfaceName";
 
+    private static final long DEFAULT_CACHE_SIZE = 1000;
+
+    private static final String JDK_PROXY = "jdk";
+
+    private static final String INVOKER_FIELD_PREFIX = "invoker";
+
+    /**
+     * 为各接口生成的代理类。
+     * 保存在 ClassValue 中而不是以 Class 为 key 的静态 Map，接口所在的类加载器不再使用时可以连同代理类一起被回收
+     */
+    private static final ClassValue<ProxyClass> PROXY_CLASSES = new ClassValue<ProxyClass>() {
+        @Override
+        protected ProxyClass computeValue(Class<?> type) {
+            try {
+                return generateProxyClass(type);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     /**
      * RpcRequestTransport 向服务器发送请求，可进一步扩展出不同的实现
      */
@@ -41,14 +93,35 @@ public class RpcClientProxy implements InvocationHandler {
      */
     private final RpcServiceConfig rpcServiceConfig;
 
+    /**
+     * 该服务的请求使用的序列化方式，为 null 时使用默认序列化方式
+     */
+    private final Byte codec;
+
+    /**
+     * 该服务的请求使用的压缩方式
+     */
+    private final byte compress;
+
+    /**
+     * 各方法预先解析好的调用信息
+     */
+    private final Map<Method, MethodDescriptor> methodDescriptors = new ConcurrentHashMap<>();
+
+    /**
+     * 开启了 singleFlight 的方法正在进行中的调用
+     */
+    private final Map<InvocationKey, CompletableFuture<RpcResponse<Object>>> inFlightCalls = new ConcurrentHashMap<>();
+
     public RpcClientProxy(RpcRequestTransport rpcRequestTransport, RpcServiceConfig rpcServiceConfig) {
         this.rpcRequestTransport = rpcRequestTransport;
         this.rpcServiceConfig = rpcServiceConfig;
+        this.codec = StringUtil.isBlank(rpcServiceConfig.getSerializer()) ? null : SerializationTypeEnum.getCode(rpcServiceConfig.getSerializer());
+        this.compress = SingletonFactory.getInstance(CompressPolicy.class).resolve(rpcServiceConfig.getCompress());
     }
 
     public RpcClientProxy(RpcRequestTransport rpcRequestTransport) {
-        this.rpcRequestTransport = rpcRequestTransport;
-        rpcServiceConfig = new RpcServiceConfig();
+        this(rpcRequestTransport, new RpcServiceConfig());
     }
 
     /**
@@ -59,11 +132,105 @@ public class RpcClientProxy implements InvocationHandler {
      * @return
      */
     public <T> T getProxy(Class<T> clazz) {
+        // 登记引用的方法，连接建立时据此与服务端协商方法 Id
+        SingletonFactory.getInstance(MethodIdTable.class).register(clazz, rpcServiceConfig.getGroup(), rpcServiceConfig.getVersion());
+        rpcRequestTransport.warmUp(clazz.getName() + rpcServiceConfig.getGroup() + rpcServiceConfig.getVersion());
+        for (Method method : clazz.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                methodDescriptors.computeIfAbsent(method, this::describe);
+            }
+        }
+
+        if (!JDK_PROXY.equals(RpcConfig.getString(RpcConfigEnum.PROXY, ""))) {
+            try {
+                return generateProxy(clazz);
+            } catch (Exception | LinkageError e) {
+                log.warn("generate proxy for [{}] failed, fall back to jdk proxy", clazz.getName(), e);
+            }
+        }
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, this);
     }
 
     /**
-     * 当使用代理对象调用方法时，实际上会调用此方法。
+     * 创建 ByteBuddy 生成的代理对象，并为其每个方法设置持有该方法调用信息的 ProxyMethodInvoker
+     *
+     * @param clazz
+     * @param <T>
+     * @return
+     * @throws ReflectiveOperationException
+     */
+    private <T> T generateProxy(Class<T> clazz) throws ReflectiveOperationException {
+        ProxyClass proxyClass = PROXY_CLASSES.get(clazz);
+        Object proxy = proxyClass.type.getDeclaredConstructor().newInstance();
+        for (int i = 0; i < proxyClass.methods.length; i++) {
+            proxyClass.invokerFields[i].set(proxy, new ProxyMethodInvoker(this, methodDescriptors.get(proxyClass.methods[i])));
+        }
+        return clazz.cast(proxy);
+    }
+
+    /**
+     * 使用 ByteBuddy 为接口生成代理类：第 i 个方法委托给字段 invoker{i} 中的 ProxyMethodInvoker，字段在创建代理对象时设置
+     *
+     * @param clazz
+     * @return
+     * @throws NoSuchFieldException
+     */
+    private static ProxyClass generateProxyClass(Class<?> clazz) throws NoSuchFieldException {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : clazz.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                methods.add(method);
+            }
+        }
+        DynamicType.Builder<?> builder = new ByteBuddy()
+                .subclass(Object.class)
+                .implement(clazz);
+        for (int i = 0; i < methods.size(); i++) {
+            builder = builder.defineField(INVOKER_FIELD_PREFIX + i, ProxyMethodInvoker.class, Visibility.PRIVATE)
+                    .method(ElementMatchers.is(methods.get(i)))
+                    .intercept(MethodDelegation.toField(INVOKER_FIELD_PREFIX + i));
+        }
+        Class<?> type = builder.make()
+                .load(clazz.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+                .getLoaded();
+        Field[] invokerFields = new Field[methods.size()];
+        for (int i = 0; i < invokerFields.length; i++) {
+            invokerFields[i] = type.getDeclaredField(INVOKER_FIELD_PREFIX + i);
+            invokerFields[i].setAccessible(true);
+        }
+        return new ProxyClass(type, methods.toArray(new Method[0]), invokerFields);
+    }
+
+    /**
+     * 预先解析方法的调用信息
+     *
+     * @param method
+     * @return
+     */
+    private MethodDescriptor describe(Method method) {
+        String interfaceName = method.getDeclaringClass().getName();
+        String rpcServiceName = interfaceName + rpcServiceConfig.getGroup() + rpcServiceConfig.getVersion();
+        Class<?>[] paramTypes = method.getParameterTypes();
+        RpcMethodConfig methodConfig = rpcServiceConfig.getMethodConfig(method.getName());
+        return MethodDescriptor.builder()
+                .method(method)
+                .interfaceName(interfaceName)
+                .methodName(method.getName())
+                .paramTypes(paramTypes)
+                .rpcServiceName(rpcServiceName)
+                .methodSignature(RpcRequest.methodSignature(rpcServiceName, method.getName(), paramTypes))
+                .timeout(resolveTimeout(methodConfig))
+                .oneway(methodConfig != null && methodConfig.isOneway() && method.getReturnType() == void.class)
+                .singleFlight(methodConfig != null && methodConfig.isSingleFlight())
+                .hedge(methodConfig != null && methodConfig.isHedge())
+                .hedgeDelay(methodConfig != null ? methodConfig.getHedgeDelay() : 0)
+                .async(isAsync(method))
+                .resultCache(createResultCache(method, methodConfig))
+                .build();
+    }
+
+    /**
+     * 当使用 JDK 动态代理对象调用方法时，实际上会调用此方法。
      * 代理对象是通过 getProxy 方法获得的对象。
      *
      * @param proxy
@@ -74,32 +241,209 @@ public class RpcClientProxy implements InvocationHandler {
      */
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        log.info("invoked method: [{}]", method.getName());
+        return invoke(methodDescriptors.computeIfAbsent(method, this::describe), args);
+    }
+
+    /**
+     * 发起远程调用
+     *
+     * @param methodDescriptor
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    Object invoke(MethodDescriptor methodDescriptor, Object[] args) throws Throwable {
+        log.debug("invoked method: [{}]", methodDescriptor.getMethodName());
+
+        // 命中结果缓存时直接返回，不发起远程调用
+        Cache<InvocationKey, Object> resultCache = methodDescriptor.getResultCache();
+        InvocationKey cacheKey = null;
+        if (resultCache != null) {
+            cacheKey = new InvocationKey(methodDescriptor.getMethod(), args);
+            Object cached = resultCache.getIfPresent(cacheKey);
+            if (cached != null) {
+                return methodDescriptor.isAsync() ? CompletableFuture.completedFuture(cached) : cached;
+            }
+        }
 
         // 构建 Rpc 请求消息，准备发送
+        RpcContext rpcContext = RpcContext.getContext();
         RpcRequest rpcRequest = RpcRequest.builder()
-                .requestID(UUID.randomUUID().toString())
-                .interfaceName(method.getDeclaringClass().getName())
-                .methodName(method.getName())
+                .interfaceName(methodDescriptor.getInterfaceName())
+                .methodName(methodDescriptor.getMethodName())
                 .parameters(args)
-                .paramTypes(method.getParameterTypes())
+                .paramTypes(methodDescriptor.getParamTypes())
                 .version(rpcServiceConfig.getVersion())
                 .group(rpcServiceConfig.getGroup())
+                .codec(codec)
+                .compress(compress)
+                .timeout(methodDescriptor.getTimeout())
+                .oneway(methodDescriptor.isOneway())
+                .hedge(methodDescriptor.isHedge())
+                .hedgeDelay(methodDescriptor.getHedgeDelay())
+                .rpcServiceName(methodDescriptor.getRpcServiceName())
+                .methodSignature(methodDescriptor.getMethodSignature())
+                .traceId(rpcContext.getTraceId())
+                .tenant(rpcContext.getTenant())
                 .build();
 
+        // 返回值为 CompletableFuture 的方法直接返回传输层的 future，不阻塞调用线程
+        if (methodDescriptor.isAsync()) {
+            InvocationKey asyncCacheKey = cacheKey;
+            return send(methodDescriptor, args, rpcRequest).thenApply(response -> {
+                this.check(response, rpcRequest);
+                cacheResult(resultCache, asyncCacheKey, response.getData());
+                return response.getData();
+            });
+        }
+
         // 构建 Rpc 响应消息，准备接收
         RpcResponse<Object> rpcResponse = null;
         if (rpcRequestTransport instanceof NettyRpcClient) {
-            CompletableFuture<RpcResponse<Object>> completableFuture = (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest);
-            rpcResponse = completableFuture.get();
+            CompletableFuture<RpcResponse<Object>> completableFuture = send(methodDescriptor, args, rpcRequest);
+            try {
+                rpcResponse = completableFuture.get();
+            } catch (ExecutionException e) {
+                // 超时、连接断开等异常直接抛给调用方
+                throw e.getCause();
+            }
         }
 
         this.check(rpcResponse, rpcRequest);
+        cacheResult(resultCache, cacheKey, rpcResponse.getData());
 
         // 返回消息体
         return rpcResponse.getData();
     }
 
+    /**
+     * 解析方法的超时时间：方法级别的配置优先，其次是服务级别的配置，都没有配置时由传输层使用默认超时时间
+     *
+     * @param methodConfig
+     * @return
+     */
+    private Long resolveTimeout(RpcMethodConfig methodConfig) {
+        if (methodConfig != null && methodConfig.getTimeout() > 0) {
+            return methodConfig.getTimeout();
+        }
+        if (rpcServiceConfig.getTimeout() > 0) {
+            return rpcServiceConfig.getTimeout();
+        }
+        return null;
+    }
+
+    /**
+     * 按方法级别或服务级别的配置创建结果缓存，返回值为 void 的方法不缓存
+     *
+     * @param method
+     * @param methodConfig
+     * @return 不缓存时返回 null
+     */
+    private Cache<InvocationKey, Object> createResultCache(Method method, RpcMethodConfig methodConfig) {
+        if (method.getReturnType() == void.class) {
+            return null;
+        }
+        long ttl = rpcServiceConfig.getCacheTtl();
+        long size = rpcServiceConfig.getCacheSize();
+        if (methodConfig != null && methodConfig.getCacheTtl() > 0) {
+            ttl = methodConfig.getCacheTtl();
+            size = methodConfig.getCacheSize();
+        }
+        if (ttl <= 0) {
+            return null;
+        }
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .maximumSize(size > 0 ? size : DEFAULT_CACHE_SIZE)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 缓存调用结果，null 不缓存
+     *
+     * @param resultCache
+     * @param cacheKey
+     * @param result
+     */
+    private void cacheResult(Cache<InvocationKey, Object> resultCache, InvocationKey cacheKey, Object result) {
+        if (resultCache != null && result != null) {
+            resultCache.put(cacheKey, result);
+        }
+    }
+
+    /**
+     * 各方法结果缓存的命中率等统计信息
+     *
+     * @return key 为方法
+     */
+    public Map<Method, CacheStats> getCacheStats() {
+        Map<Method, CacheStats> cacheStats = new HashMap<>();
+        methodDescriptors.forEach((method, methodDescriptor) -> {
+            if (methodDescriptor.getResultCache() != null) {
+                cacheStats.put(method, methodDescriptor.getResultCache().stats());
+            }
+        });
+        return cacheStats;
+    }
+
+    /**
+     * 方法的返回值是否为异步类型（CompletableFuture、CompletionStage 或 Future）
+     *
+     * @param method
+     * @return
+     */
+    private boolean isAsync(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType == CompletableFuture.class || returnType == CompletionStage.class || returnType == Future.class;
+    }
+
+    /**
+     * 发送请求，开启了 singleFlight 的方法与正在进行中的相同调用共享同一个 future
+     *
+     * @param methodDescriptor
+     * @param args
+     * @param rpcRequest
+     * @return
+     */
+    private CompletableFuture<RpcResponse<Object>> send(MethodDescriptor methodDescriptor, Object[] args, RpcRequest rpcRequest) {
+        if (!methodDescriptor.isSingleFlight() || methodDescriptor.isOneway()) {
+            return sendAsync(rpcRequest);
+        }
+
+        InvocationKey key = new InvocationKey(methodDescriptor.getMethod(), args);
+        CompletableFuture<RpcResponse<Object>> created = new CompletableFuture<>();
+        CompletableFuture<RpcResponse<Object>> inFlight = inFlightCalls.putIfAbsent(key, created);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        sendAsync(rpcRequest).whenComplete((response, throwable) -> {
+            // 先移除再完成，之后的调用重新发起远程调用
+            inFlightCalls.remove(key, created);
+            if (throwable != null) {
+                created.completeExceptionally(throwable);
+            } else {
+                created.complete(response);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 异步发送请求，发送过程中的异常也通过返回的 future 传递
+     *
+     * @param rpcRequest
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<RpcResponse<Object>> sendAsync(RpcRequest rpcRequest) {
+        try {
+            return (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * 检查消息
      *
@@ -111,12 +455,23 @@ public class RpcClientProxy implements InvocationHandler {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
-        if (!rpcRequest.getRequestID().equals(rpcResponse.getRequestId())) {
-            throw new RpcException(RpcErrorMessageEnum.REQUEST_NOT_MATCH_RESPONSE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
-        }
-
         if (rpcResponse.getCode() == null || !rpcResponse.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode())) {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
     }
+
+    /**
+     * 为一个接口生成的代理类，以及各方法对应的调用器字段
+     */
+    private static class ProxyClass {
+        private final Class<?> type;
+        private final Method[] methods;
+        private final Field[] invokerFields;
+
+        ProxyClass(Class<?> type, Method[] methods, Field[] invokerFields) {
+            this.type = type;
+            this.methods = methods;
+            this.invokerFields = invokerFields;
+        }
+    }
 }
@@ -4,6 +4,8 @@ import cn.hc.extension.SPI;
 import cn.hc.remoting.dto.RpcRequest;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * 服务发现
@@ -20,4 +22,21 @@ public interface ServiceDiscovery {
      * @return
      */
     InetSocketAddress lookupService(RpcRequest rpcRequest);
+
+    /**
+     * 根据 rpcRequest 提供的 rpcServiceName 寻找注册的 service，不选择 excludedAddresses 中的地址
+     *
+     * @param rpcRequest        Rpc 请求
+     * @param excludedAddresses 排除的服务地址
+     * @return 没有其他可选的地址时返回 null
+     */
+    InetSocketAddress lookupService(RpcRequest rpcRequest, Collection<InetSocketAddress> excludedAddresses);
+
+    /**
+     * 获取 rpcServiceName 注册的所有 service 地址
+     *
+     * @param rpcServiceName
+     * @return 服务不存在时返回空列表
+     */
+    List<InetSocketAddress> lookupAllServices(String rpcServiceName);
 }
@@ -12,6 +12,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -43,7 +46,43 @@ public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
         // 负载均衡策略选择 Service 的 Url
         String targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
         log.info("Successfully found the service address:[{}]", targetServiceUrl);
-        String[] socketAddressArray = targetServiceUrl.split(":");
+        return toInetSocketAddress(targetServiceUrl);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest, Collection<InetSocketAddress> excludedAddresses) {
+        List<String> serviceUrlList = CuratorUtils.getChildrenNodes(CuratorUtils.getZkClient(), rpcRequest.getRpcServiceName());
+        if (CollectionUtil.isEmpty(serviceUrlList)) {
+            return null;
+        }
+        List<String> candidates = new ArrayList<>(serviceUrlList.size());
+        for (String serviceUrl : serviceUrlList) {
+            if (!excludedAddresses.contains(toInetSocketAddress(serviceUrl))) {
+                candidates.add(serviceUrl);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        // 在剩余的地址中按负载均衡策略选择
+        return toInetSocketAddress(loadBalance.selectServiceAddress(candidates, rpcRequest));
+    }
+
+    @Override
+    public List<InetSocketAddress> lookupAllServices(String rpcServiceName) {
+        List<String> serviceUrlList = CuratorUtils.getChildrenNodes(CuratorUtils.getZkClient(), rpcServiceName);
+        if (CollectionUtil.isEmpty(serviceUrlList)) {
+            return Collections.emptyList();
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>(serviceUrlList.size());
+        for (String serviceUrl : serviceUrlList) {
+            addresses.add(toInetSocketAddress(serviceUrl));
+        }
+        return addresses;
+    }
+
+    private InetSocketAddress toInetSocketAddress(String serviceUrl) {
+        String[] socketAddressArray = serviceUrl.split(":");
         // 从 Url 中解析出 地址和端口号
         String host = socketAddressArray[0];
         int port = Integer.parseInt(socketAddressArray[1]);
@@ -0,0 +1,32 @@
+package cn.hc.remoting;
+
+import lombok.Data;
+
+/**
+ * 当前线程的调用上下文：客户端在调用前设置链路追踪 id 和租户，随 v2 请求的附加信息发送；
+ * 服务端处理请求期间从该上下文中读取调用方传来的值，处理完成后清除
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Data
+public class RpcContext {
+    private static final ThreadLocal<RpcContext> CONTEXT = ThreadLocal.withInitial(RpcContext::new);
+
+    /**
+     * 链路追踪 id
+     */
+    private String traceId;
+    /**
+     * 租户
+     */
+    private String tenant;
+
+    public static RpcContext getContext() {
+        return CONTEXT.get();
+    }
+
+    public static void removeContext() {
+        CONTEXT.remove();
+    }
+}
@@ -15,9 +15,15 @@ public class RpcConstants {
      */
     public static final byte[] MAGIC_NUMBER = new byte[]{'C', 'o', 'n', 'g'};
     /**
-     * 版本
+     * 版本：v1 为 16 字节的固定头部，请求 id 占 4 字节；v2 的请求 id 扩展为 8 字节，之后增加 1B 标志位、2B 附加信息长度和附加信息
      */
-    public static final byte VERSION = 1;
+    public static final byte VERSION_1 = 1;
+    public static final byte VERSION_2 = 2;
+    /**
+     * 本端支持的最高版本，连接建立时通过握手与对端协商实际使用的版本，协商完成前（包括握手消息本身）使用 v1。
+     * 只支持 v1 的对端忽略握手信息，该连接继续使用 v1；服务端总是按请求帧的版本返回响应
+     */
+    public static final byte VERSION = VERSION_2;
     /**
      * 指定 String 和 byte[] 转换时的编码格式
      */
@@ -25,12 +31,66 @@ public class RpcConstants {
     public static final byte TOTAL_LENGTH = 16;
 
     /**
-     * 自定义协议头部长度
+     * 自定义协议头部长度（v1）
      */
     public static final int HEAD_LENGTH = 16;
+    /**
+     * v2 协议头部长度（不含附加信息）：12B 公共部分 + 8B 请求 id + 1B 标志位 + 2B 附加信息长度
+     */
+    public static final int HEAD_LENGTH_V2 = 23;
+    /**
+     * v2 头部中附加信息的最大长度
+     */
+    public static final int MAX_ATTACHMENTS_LENGTH = 0xFFFF;
+
+    /**
+     * v2 头部中的标志位：单向调用，不需要响应
+     */
+    public static final byte FLAG_ONEWAY = 0x01;
+    /**
+     * 流式传输：消息被拆分为多个分片帧
+     */
+    public static final byte FLAG_STREAMING = 0x02;
+    /**
+     * 响应表示调用失败，不需要反序列化消息体即可判断
+     */
+    public static final byte FLAG_ERROR = 0x04;
+    /**
+     * 消息体按压缩策略进行了压缩
+     */
+    public static final byte FLAG_COMPRESSED_BY_POLICY = 0x08;
     public static final String PING = "ping";
     public static final String PONG = "pong";
     public static final int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
+    /**
+     * 默认的分片大小，消息体超过该大小时拆分为多个分片帧
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * 默认允许的最大消息体大小（分片重组后）
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+    /**
+     * 默认的调用超时时间（毫秒）
+     */
+    public static final int DEFAULT_TIMEOUT = 5000;
+    /**
+     * 默认合并刷新的最大帧数
+     */
+    public static final int DEFAULT_FLUSH_MAX_MESSAGES = 64;
+    /**
+     * 默认的写缓冲区低水位和高水位（字节），超过高水位后连接不可写，降到低水位以下后恢复可写
+     */
+    public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+    public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+    /**
+     * 连接饱和时默认最多排队等待的请求数
+     */
+    public static final int DEFAULT_BACKPRESSURE_QUEUE_SIZE = 1024;
+    /**
+     * 分片帧在头部之后的附加信息长度：1B 原始消息类型 + 1B 是否为最后一个分片
+     */
+    public static final int CHUNK_HEAD_LENGTH = 2;
 
     /**
      * 消息类别
@@ -42,4 +102,23 @@ public class RpcConstants {
      */
     public static final byte HEARTBEAT_REQUEST_TYPE = 3;
     public static final byte HEARTBEAT_RESPONSE_TYPE = 4;
+    /**
+     * 连接建立时协商协议版本和方法 Id 的握手消息类别。客户端把握手信息放在 v1 心跳请求的消息体中发送，
+     * 只支持 v1 的服务端会返回普通心跳响应；服务端仍然接受以握手请求类别发送的握手信息
+     */
+    public static final byte HANDSHAKE_REQUEST_TYPE = 5;
+    public static final byte HANDSHAKE_RESPONSE_TYPE = 6;
+    /**
+     * 紧凑请求：消息体为 4B 方法 Id + 参数列表，不携带接口名、方法名、参数类型等信息
+     */
+    public static final byte COMPACT_REQUEST_TYPE = 7;
+    /**
+     * 分片帧：大消息的消息体被拆分为多个共享同一请求 id 的分片帧，接收方收到最后一个分片后重组
+     */
+    public static final byte CHUNK_TYPE = 8;
+    /**
+     * 批量请求和批量响应：一帧中携带多个请求（响应），只在 v2 连接上使用
+     */
+    public static final byte BATCH_REQUEST_TYPE = 9;
+    public static final byte BATCH_RESPONSE_TYPE = 10;
 }
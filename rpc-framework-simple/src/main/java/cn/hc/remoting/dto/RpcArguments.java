@@ -0,0 +1,23 @@
+package cn.hc.remoting.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 紧凑请求中的参数列表
+ * <p>
+ * 部分序列化器（例如 protostuff）不能直接以数组作为根对象，因此用一个只有一个字段的对象包装
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RpcArguments implements Serializable {
+    private static final long serialVersionUID = -6318850723562437781L;
+    private Object[] values;
+}
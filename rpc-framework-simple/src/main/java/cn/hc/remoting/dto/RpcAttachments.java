@@ -0,0 +1,122 @@
+package cn.hc.remoting.dto;
+
+import cn.hc.remoting.constants.RpcConstants;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * v2 协议头部中的附加信息，用于携带截止时间、链路追踪 id、租户等元数据，读取时不需要反序列化消息体
+ * <p>
+ * 编码格式为若干个 1B key + 2B 长度 + 值，key 的取值见本类中的常量
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+public class RpcAttachments {
+    /**
+     * 调用的剩余超时时间（毫秒），8 字节。使用相对时间，接收方据此换算出本地的截止时间，不受两端时钟偏差影响
+     */
+    public static final byte DEADLINE = 1;
+    /**
+     * 链路追踪 id，UTF-8 字符串
+     */
+    public static final byte TRACE_ID = 2;
+    /**
+     * 租户，UTF-8 字符串
+     */
+    public static final byte TENANT = 3;
+
+    private static final int ENTRY_HEAD_LENGTH = 3;
+    private static final int MAX_VALUE_LENGTH = 0xFFFF;
+
+    private final Map<Byte, byte[]> values = new LinkedHashMap<>(4);
+
+    public void put(byte key, byte[] value) {
+        if (value.length > MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("attachment [" + key + "] is too long: " + value.length);
+        }
+        values.put(key, value);
+    }
+
+    public byte[] get(byte key) {
+        return values.get(key);
+    }
+
+    public void putLong(byte key, long value) {
+        put(key, ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+    }
+
+    public long getLong(byte key, long defaultValue) {
+        byte[] value = values.get(key);
+        return value == null || value.length != Long.BYTES ? defaultValue : ByteBuffer.wrap(value).getLong();
+    }
+
+    public void putString(byte key, String value) {
+        put(key, value.getBytes(RpcConstants.DEFAULT_CHARSET));
+    }
+
+    public String getString(byte key) {
+        byte[] value = values.get(key);
+        return value == null ? null : new String(value, RpcConstants.DEFAULT_CHARSET);
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * 编码后的字节数
+     *
+     * @return
+     */
+    public int encodedLength() {
+        int length = 0;
+        for (byte[] value : values.values()) {
+            length += ENTRY_HEAD_LENGTH + value.length;
+        }
+        return length;
+    }
+
+    /**
+     * 从 index 处开始编码到 buf 中，不改变 buf 的读写位置
+     *
+     * @param buf
+     * @param index
+     */
+    public void encode(ByteBuf buf, int index) {
+        for (Map.Entry<Byte, byte[]> entry : values.entrySet()) {
+            byte[] value = entry.getValue();
+            buf.setByte(index, entry.getKey());
+            buf.setShort(index + 1, value.length);
+            buf.setBytes(index + ENTRY_HEAD_LENGTH, value);
+            index += ENTRY_HEAD_LENGTH + value.length;
+        }
+    }
+
+    /**
+     * 从 in 中读取 length 字节并解码
+     *
+     * @param in
+     * @param length
+     * @return
+     */
+    public static RpcAttachments decode(ByteBuf in, int length) {
+        RpcAttachments attachments = new RpcAttachments();
+        int endIndex = in.readerIndex() + length;
+        while (in.readerIndex() < endIndex) {
+            byte key = in.readByte();
+            byte[] value = new byte[in.readUnsignedShort()];
+            in.readBytes(value);
+            attachments.values.put(key, value);
+        }
+        return attachments;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcAttachments" + values.keySet();
+    }
+}
@@ -0,0 +1,29 @@
+package cn.hc.remoting.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 批量请求：同一连接上短时间内的多个请求合并为一帧发送
+ * <p>
+ * 第 i 个请求的 id 为 requestIds[i]；methodIds[i] 大于等于 0 时 requests[i] 为紧凑请求的参数 {@link RpcArguments}，
+ * 否则为完整的 {@link RpcRequest}。服务端解码后全部还原为 RpcRequest
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RpcBatchRequest implements Serializable {
+    private static final long serialVersionUID = 2409316718204561382L;
+    private long[] requestIds;
+    private int[] methodIds;
+    private List<Object> requests;
+}
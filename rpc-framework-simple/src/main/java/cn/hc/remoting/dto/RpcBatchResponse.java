@@ -0,0 +1,25 @@
+package cn.hc.remoting.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 批量响应：与批量请求一一对应，第 i 个响应属于请求 requestIds[i]
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RpcBatchResponse implements Serializable {
+    private static final long serialVersionUID = -1527290263384530907L;
+    private long[] requestIds;
+    private List<RpcResponse<Object>> responses;
+}
@@ -0,0 +1,37 @@
+package cn.hc.remoting.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 连接建立时交换的握手消息，用于协商方法签名到方法 Id 的映射
+ * <p>
+ * 客户端发送引用的方法签名列表，服务端按相同顺序返回对应的方法 Id，未提供的方法返回 -1
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RpcHandshake implements Serializable {
+    private static final long serialVersionUID = 3275408316257203517L;
+    /**
+     * 客户端引用的方法签名
+     */
+    private List<String> signatures;
+    /**
+     * 服务端分配的方法 Id，与 signatures 一一对应
+     */
+    private int[] methodIds;
+    /**
+     * 客户端：支持的最高协议版本；服务端：协商后的协议版本
+     */
+    private byte version;
+}
@@ -14,6 +14,10 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @Builder
 public class RpcMessage {
+    /**
+     * 协议版本：接收方为解码出的帧的版本，发送方为 0 时使用连接上协商得到的版本
+     */
+    private byte version;
     /**
      * rpc 消息类型
      */
@@ -27,9 +31,25 @@ public class RpcMessage {
      */
     private byte compress;
     /**
-     * 请求 id
+     * 请求 id，在连接内单调递增，响应沿用请求的 id
+     */
+    private long requestId;
+    /**
+     * 紧凑请求的方法 Id，仅在消息类型为 COMPACT_REQUEST_TYPE 时有效
+     */
+    private int methodId;
+    /**
+     * v2 头部中的标志位，见 RpcConstants.FLAG_*
+     */
+    private byte flags;
+    /**
+     * v2 头部中的附加信息，可以为 null
+     */
+    private RpcAttachments attachments;
+    /**
+     * 接收方根据附加信息中的剩余超时时间换算出的本地截止时间（毫秒时间戳），0 表示没有截止时间，不参与编码
      */
-    private int requestId;
+    private long deadline;
     /**
      * 请求数据
      */
@@ -16,11 +16,11 @@ import java.io.Serializable;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = 1905122041950251207L;
     /**
-     * 请求 id
+     * 消息体中的请求 id，只在 v1 连接上设置。v1 的服务端不回显头部中的请求 id，客户端依靠响应消息体中回显的该值匹配请求
      */
     private String requestID;
     /**
@@ -47,6 +47,46 @@ public class RpcRequest implements Serializable {
      *
      */
     private String group;
+    /**
+     * 发送该请求时使用的序列化方式，只在客户端本地使用，不参与序列化
+     */
+    private transient Byte codec;
+    /**
+     * 发送该请求时使用的压缩方式，只在客户端本地使用，不参与序列化
+     */
+    private transient Byte compress;
+    /**
+     * 该请求的超时时间（毫秒），只在客户端本地使用，不参与序列化
+     */
+    private transient Long timeout;
+    /**
+     * 是否单向调用，只在客户端本地使用，不参与序列化
+     */
+    private transient boolean oneway;
+    /**
+     * 是否发送对冲请求，只在客户端本地使用，不参与序列化
+     */
+    private transient boolean hedge;
+    /**
+     * 发出对冲请求前等待的时间（毫秒），小于等于 0 时使用最近调用耗时的百分位数，只在客户端本地使用，不参与序列化
+     */
+    private transient long hedgeDelay;
+    /**
+     * 调用线程 RpcContext 中的链路追踪 id，随 v2 请求的附加信息发送，只在客户端本地使用，不参与序列化
+     */
+    private transient String traceId;
+    /**
+     * 调用线程 RpcContext 中的租户，随 v2 请求的附加信息发送，只在客户端本地使用，不参与序列化
+     */
+    private transient String tenant;
+    /**
+     * 客户端代理预先计算好的服务完整名称，只在客户端本地使用，不参与序列化
+     */
+    private transient String rpcServiceName;
+    /**
+     * 客户端代理预先计算好的方法签名，只在客户端本地使用，不参与序列化
+     */
+    private transient String methodSignature;
 
     /**
      * 返回服务的完整名称
@@ -54,6 +94,42 @@ public class RpcRequest implements Serializable {
      * @return
      */
     public String getRpcServiceName() {
+        if (rpcServiceName != null) {
+            return rpcServiceName;
+        }
         return this.getInterfaceName() + this.getGroup() + this.getVersion();
     }
+
+    /**
+     * 返回方法签名，握手时以此为 key 协商方法 Id
+     *
+     * @return
+     */
+    public String getMethodSignature() {
+        if (methodSignature != null) {
+            return methodSignature;
+        }
+        return methodSignature(this.getRpcServiceName(), this.getMethodName(), this.getParamTypes());
+    }
+
+    /**
+     * 方法签名：服务完整名称#方法名(参数类型,...)
+     *
+     * @param rpcServiceName
+     * @param methodName
+     * @param paramTypes
+     * @return
+     */
+    public static String methodSignature(String rpcServiceName, String methodName, Class<?>[] paramTypes) {
+        StringBuilder signature = new StringBuilder(rpcServiceName).append('#').append(methodName).append('(');
+        if (paramTypes != null) {
+            for (int i = 0; i < paramTypes.length; i++) {
+                if (i > 0) {
+                    signature.append(',');
+                }
+                signature.append(paramTypes[i].getName());
+            }
+        }
+        return signature.append(')').toString();
+    }
 }
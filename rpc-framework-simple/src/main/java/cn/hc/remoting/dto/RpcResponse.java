@@ -19,7 +19,7 @@ import java.io.Serializable;
 public class RpcResponse<T> implements Serializable {
     private static final long serialVersionUID = 715745410605631233L;
     /**
-     * 请求 id（对应于请求消息）
+     * 回显请求消息体中的请求 id，只在 v1 连接上设置
      */
     private String requestId;
     /**
@@ -39,14 +39,12 @@ public class RpcResponse<T> implements Serializable {
      * 成功时的响应消息
      *
      * @param data
-     * @param requestId
      * @param <T>
      * @return
      */
-    public static <T> RpcResponse<T> success(T data, String requestId) {
+    public static <T> RpcResponse<T> success(T data) {
         RpcResponse<T> response = new RpcResponse<>();
 
-        response.setRequestId(requestId);
         response.setMessage(RpcResponseCodeEnum.SUCCESS.getMessage());
         response.setCode(RpcResponseCodeEnum.SUCCESS.getCode());
         if (null != data) {
@@ -0,0 +1,92 @@
+package cn.hc.remoting.handler;
+
+import cn.hc.config.RpcServiceConfig;
+import cn.hc.remoting.dto.RpcRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 服务端的方法表：发布服务时为服务接口的每个方法分配一个方法 Id
+ * <p>
+ * 客户端在连接建立时通过握手按方法签名换取方法 Id，之后的紧凑请求只携带方法 Id 和参数，
+ * 服务端再根据方法 Id 还原出接口名、方法名、参数类型、版本和分组
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Slf4j
+public class ServiceMethodTable {
+    public static final int UNKNOWN_METHOD_ID = -1;
+
+    /**
+     * 下标即方法 Id，元素为不含请求 id 和参数的请求模板
+     */
+    private final List<RpcRequest> methods = new CopyOnWriteArrayList<>();
+    /**
+     * key：方法签名
+     * value：方法 Id
+     */
+    private final Map<String, Integer> methodIds = new ConcurrentHashMap<>();
+
+    /**
+     * 为服务接口中的所有方法分配方法 Id
+     *
+     * @param rpcServiceConfig
+     */
+    public synchronized void register(RpcServiceConfig rpcServiceConfig) {
+        String rpcServiceName = rpcServiceConfig.getRpcServiceName();
+        Class<?> serviceInterface = rpcServiceConfig.getService().getClass().getInterfaces()[0];
+        for (Method method : serviceInterface.getMethods()) {
+            String signature = RpcRequest.methodSignature(rpcServiceName, method.getName(), method.getParameterTypes());
+            if (methodIds.containsKey(signature)) {
+                continue;
+            }
+            methods.add(RpcRequest.builder()
+                    .interfaceName(rpcServiceConfig.getServiceName())
+                    .methodName(method.getName())
+                    .paramTypes(method.getParameterTypes())
+                    .version(rpcServiceConfig.getVersion())
+                    .group(rpcServiceConfig.getGroup())
+                    .build());
+            methodIds.put(signature, methods.size() - 1);
+        }
+        log.info("Method table size after registering [{}]: {}", rpcServiceName, methods.size());
+    }
+
+    /**
+     * 根据方法签名查找方法 Id
+     *
+     * @param signature
+     * @return 方法 Id，未找到时返回 {@link #UNKNOWN_METHOD_ID}
+     */
+    public int getMethodId(String signature) {
+        return methodIds.getOrDefault(signature, UNKNOWN_METHOD_ID);
+    }
+
+    /**
+     * 根据方法 Id 还原请求
+     *
+     * @param methodId
+     * @param parameters
+     * @return
+     */
+    public RpcRequest newRequest(int methodId, Object[] parameters) {
+        if (methodId < 0 || methodId >= methods.size()) {
+            throw new IllegalArgumentException("unknown method id: " + methodId);
+        }
+        RpcRequest template = methods.get(methodId);
+        return RpcRequest.builder()
+                .interfaceName(template.getInterfaceName())
+                .methodName(template.getMethodName())
+                .parameters(parameters)
+                .paramTypes(template.getParamTypes())
+                .version(template.getVersion())
+                .group(template.getGroup())
+                .build();
+    }
+}
@@ -19,4 +19,12 @@ public interface RpcRequestTransport {
      * @return
      */
     Object sendRpcRequest(RpcRequest rpcRequest);
+
+    /**
+     * 预热到服务提供者的连接，默认不做任何处理
+     *
+     * @param rpcServiceName
+     */
+    default void warmUp(String rpcServiceName) {
+    }
 }
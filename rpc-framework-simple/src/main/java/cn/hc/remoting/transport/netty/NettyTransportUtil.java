@@ -0,0 +1,123 @@
+package cn.hc.remoting.transport.netty;
+
+import cn.hc.config.RpcConfig;
+import cn.hc.enums.RpcConfigEnum;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 选择 Netty 的传输实现：Linux 上 native epoll 可用时使用 epoll（边缘触发，支持 SO_REUSEPORT、TCP_QUICKACK、TCP_FASTOPEN 等选项），
+ * 否则使用 NIO
+ * <p>
+ * rpc.transport 为 auto（默认）时自动选择，为 nio 时总是使用 NIO，为 epoll 时 epoll 不可用会记录错误并退回 NIO
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Slf4j
+public final class NettyTransportUtil {
+    private static final String AUTO = "auto";
+    private static final String EPOLL = "epoll";
+    private static final String NIO = "nio";
+
+    private static final boolean USE_EPOLL = useEpoll();
+    /**
+     * 是否开启 TCP_QUICKACK（仅 epoll），默认开启
+     */
+    private static final boolean TCP_QUICKACK = RpcConfig.getBoolean(RpcConfigEnum.TCP_QUICKACK, true);
+    /**
+     * 服务端 TCP_FASTOPEN 队列长度，大于 0 时服务端开启 TCP_FASTOPEN、客户端开启 TCP_FASTOPEN_CONNECT（仅 epoll，需要内核支持）
+     */
+    private static final int TCP_FASTOPEN = RpcConfig.getInt(RpcConfigEnum.TCP_FASTOPEN, 0);
+
+    private NettyTransportUtil() {
+    }
+
+    private static boolean useEpoll() {
+        String transport = RpcConfig.getString(RpcConfigEnum.TRANSPORT, AUTO);
+        if (NIO.equals(transport)) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            log.info("use native epoll transport");
+            return true;
+        }
+        if (EPOLL.equals(transport)) {
+            log.error("native epoll transport is not available, fall back to nio", Epoll.unavailabilityCause());
+        }
+        return false;
+    }
+
+    /**
+     * 是否使用 epoll 传输
+     *
+     * @return
+     */
+    public static boolean isEpoll() {
+        return USE_EPOLL;
+    }
+
+    /**
+     * 创建 EventLoopGroup
+     *
+     * @param nThreads 线程数，为 0 时使用 Netty 的默认线程数（cpu 核数 * 2）
+     * @return
+     */
+    public static EventLoopGroup newEventLoopGroup(int nThreads) {
+        return USE_EPOLL ? new EpollEventLoopGroup(nThreads) : new NioEventLoopGroup(nThreads);
+    }
+
+    public static Class<? extends SocketChannel> socketChannelClass() {
+        return USE_EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return USE_EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 设置客户端连接的 epoll 专有选项
+     *
+     * @param bootstrap
+     */
+    public static void applyClientOptions(Bootstrap bootstrap) {
+        if (!USE_EPOLL) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.TCP_QUICKACK, TCP_QUICKACK);
+        if (TCP_FASTOPEN > 0) {
+            bootstrap.option(EpollChannelOption.TCP_FASTOPEN_CONNECT, true);
+        }
+    }
+
+    /**
+     * 设置服务端的 epoll 专有选项
+     *
+     * @param serverBootstrap
+     * @param reusePort       是否开启 SO_REUSEPORT，多个 acceptor 绑定同一端口时需要开启
+     */
+    public static void applyServerOptions(ServerBootstrap serverBootstrap, boolean reusePort) {
+        if (!USE_EPOLL) {
+            return;
+        }
+        if (reusePort) {
+            serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (TCP_FASTOPEN > 0) {
+            serverBootstrap.option(EpollChannelOption.TCP_FASTOPEN, TCP_FASTOPEN);
+        }
+        serverBootstrap.childOption(EpollChannelOption.TCP_QUICKACK, TCP_QUICKACK);
+    }
+}
@@ -1,59 +1,99 @@
 package cn.hc.remoting.transport.netty.client;
 
+import cn.hc.config.RpcConfig;
+import cn.hc.enums.RpcConfigEnum;
+import cn.hc.utils.RuntimeUtil;
 import io.netty.channel.Channel;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 存储和获取 Channel 对象
+ * <p>
+ * 每个服务地址对应一个连接池，连接按需创建：只有当选中的连接上还有未完成的请求，且连接数未达到上限时，才建立新连接。
+ * 不活跃或连续超时过多的连接会被移出连接池，饱和（写缓冲区超过高水位或未完成的请求数达到上限）的连接暂不参与选择
  *
  * @author HCong
  * @create 2022/8/5
  */
 @Slf4j
 public class ChannelProvider {
-    private final Map<String, Channel> channelMap;
+    private static final String ROUND_ROBIN = "round-robin";
+    private static final String LEAST_PENDING = "least-pending";
+    private static final int DEFAULT_MAX_TIMEOUTS = 3;
+
+    private final Map<String, ChannelPool> channelMap;
+    /**
+     * 每个地址的最大连接数，默认与客户端 EventLoopGroup 的线程数相同，使连接分布到所有 IO 线程上
+     */
+    private final int maxConnections;
+    /**
+     * true 表示选择未完成请求最少的连接，否则轮询
+     */
+    private final boolean leastPending;
+    /**
+     * 连续超时达到该值的连接会被关闭
+     */
+    private final int maxConsecutiveTimeouts;
+    /**
+     * 单个连接上最多未完成的请求数，小于等于 0 时不限制
+     */
+    private final int maxInFlightPerChannel;
 
     public ChannelProvider() {
         channelMap = new ConcurrentHashMap<>();
+        maxConnections = Math.max(1, RpcConfig.getInt(RpcConfigEnum.MAX_CONNECTIONS, RuntimeUtil.cpus() * 2));
+        leastPending = !ROUND_ROBIN.equals(RpcConfig.getString(RpcConfigEnum.CONNECTION_SELECT, LEAST_PENDING));
+        maxConsecutiveTimeouts = RpcConfig.getInt(RpcConfigEnum.CONNECTION_MAX_TIMEOUTS, DEFAULT_MAX_TIMEOUTS);
+        maxInFlightPerChannel = RpcConfig.getInt(RpcConfigEnum.MAX_IN_FLIGHT_PER_CHANNEL, 0);
     }
 
     /**
-     * 从 channelMap 中获取 Chnanel
+     * 从连接池中选择一个 Channel
      *
      * @param inetSocketAddress
-     * @return
+     * @return 需要建立新连接时返回 null
      */
     public Channel get(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.toString();
+        return get(inetSocketAddress, true);
+    }
 
-        if (channelMap.containsKey(key)) {
-            Channel channel = channelMap.get(key);
-            if (channel != null && channel.isActive()) {
-                return channel;
-            } else {
-                channelMap.remove(key);
-            }
-        }
-        return null;
+    /**
+     * 从连接池中选择一个 Channel
+     *
+     * @param inetSocketAddress
+     * @param grow              为 false 时（例如已有连接正在建立）即使所有连接都在处理请求，也返回池中已有的连接
+     * @return 需要建立新连接时返回 null
+     */
+    public Channel get(InetSocketAddress inetSocketAddress, boolean grow) {
+        ChannelPool pool = channelMap.get(inetSocketAddress.toString());
+        return pool == null ? null : pool.select(grow);
     }
 
     /**
-     * 存储 Channel
+     * 将新建立的 Channel 加入连接池
      *
      * @param inetSocketAddress
      * @param channel
+     * @return 实际应使用的 Channel，连接池已满时关闭新连接并返回池中已有的连接
      */
-    public void set(InetSocketAddress inetSocketAddress, Channel channel) {
+    public Channel set(InetSocketAddress inetSocketAddress, Channel channel) {
         String key = inetSocketAddress.toString();
-        channelMap.put(key, channel);
+        ChannelPool pool = channelMap.computeIfAbsent(key, k -> new ChannelPool(key));
+        if (pool.add(channel)) {
+            return channel;
+        }
+        channel.close();
+        Channel pooled = pool.select(false);
+        return pooled != null ? pooled : pool.any();
     }
 
     /**
-     * 移除 Channel
+     * 移除该地址的所有 Channel
      *
      * @param inetSocketAddress
      */
@@ -64,4 +104,122 @@ public class ChannelProvider {
         }
         log.info("Channel map size :[{}]", channelMap.size());
     }
+
+    private boolean isHealthy(Channel channel) {
+        return channel.isActive()
+                && (maxConsecutiveTimeouts <= 0 || UnprocessedRequests.of(channel).consecutiveTimeouts() < maxConsecutiveTimeouts);
+    }
+
+    /**
+     * 单个地址的连接池，连接数组写时复制，选择连接时无锁
+     */
+    private class ChannelPool {
+        private final String address;
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile Channel[] channels = new Channel[0];
+
+        ChannelPool(String address) {
+            this.address = address;
+        }
+
+        /**
+         * 选择一个连接
+         *
+         * @param grow 是否允许建立新连接
+         * @return 需要建立新连接时返回 null
+         */
+        Channel select(boolean grow) {
+            Channel[] snapshot = channels;
+            int size = snapshot.length;
+            Channel selected = null;
+            Channel saturated = null;
+            int selectedPending = Integer.MAX_VALUE;
+            int start = leastPending ? 0 : next.getAndIncrement();
+            for (int i = 0; i < size; i++) {
+                Channel channel = snapshot[Math.floorMod(start + i, size)];
+                if (!isHealthy(channel)) {
+                    evict(channel);
+                    continue;
+                }
+                if (InFlightLimiter.isSaturated(channel, maxInFlightPerChannel)) {
+                    saturated = channel;
+                    continue;
+                }
+                int pending = UnprocessedRequests.of(channel).pendingCount();
+                if (pending < selectedPending) {
+                    selected = channel;
+                    selectedPending = pending;
+                }
+                if (!leastPending || pending == 0) {
+                    break;
+                }
+            }
+            // 选中的连接空闲，或不能再建立新连接时直接使用，否则建立新连接分担请求
+            if (!grow || channels.length >= maxConnections) {
+                return selected != null ? selected : saturated;
+            }
+            return selectedPending == 0 ? selected : null;
+        }
+
+        /**
+         * 任意一个活跃的连接
+         *
+         * @return
+         */
+        Channel any() {
+            for (Channel channel : channels) {
+                if (channel.isActive()) {
+                    return channel;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 加入连接，连接关闭时自动移出
+         *
+         * @param channel
+         * @return 连接池已满时返回 false
+         */
+        synchronized boolean add(Channel channel) {
+            Channel[] current = channels;
+            if (current.length >= maxConnections) {
+                return false;
+            }
+            Channel[] updated = new Channel[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = channel;
+            channels = updated;
+            channel.closeFuture().addListener(future -> remove(channel));
+            log.info("Channel pool [{}] size :[{}]", address, updated.length);
+            return true;
+        }
+
+        /**
+         * 移出不健康的连接，仍然活跃的连接（连续超时）将被关闭，其未完成的请求随之失败
+         *
+         * @param channel
+         */
+        private void evict(Channel channel) {
+            if (remove(channel) && channel.isActive()) {
+                log.warn("Close unhealthy channel [{}] after [{}] consecutive timeouts", channel, maxConsecutiveTimeouts);
+                channel.close();
+            }
+        }
+
+        private synchronized boolean remove(Channel channel) {
+            Channel[] current = channels;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == channel) {
+                    Channel[] updated = new Channel[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    channels = updated;
+                    log.info("Channel pool [{}] size :[{}]", address, updated.length);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
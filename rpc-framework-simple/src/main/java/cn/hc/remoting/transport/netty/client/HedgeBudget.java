@@ -0,0 +1,57 @@
+package cn.hc.remoting.transport.netty.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲请求的预算，限制对冲带来的额外负载
+ * <p>
+ * 令牌桶：每个可对冲的调用存入 ratio 个令牌，每发出一个对冲请求消耗 1 个令牌，
+ * 长期来看对冲请求数不超过可对冲调用数的 ratio 倍，桶中最多积累 MAX_TOKENS 个令牌以容纳短时突发
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+public class HedgeBudget {
+    /**
+     * 令牌以千分之一为单位计数
+     */
+    private static final long UNIT = 1000;
+    private static final long MAX_TOKENS = 10 * UNIT;
+
+    private final long tokensPerCall;
+    private final AtomicLong tokens = new AtomicLong();
+
+    /**
+     * @param ratio 对冲请求数占可对冲调用数的最大比例，例如 0.05
+     */
+    public HedgeBudget(double ratio) {
+        this.tokensPerCall = Math.max(0, Math.round(ratio * UNIT));
+    }
+
+    /**
+     * 记录一次可对冲的调用
+     */
+    public void onCall() {
+        if (tokensPerCall == 0) {
+            return;
+        }
+        tokens.getAndUpdate(current -> Math.min(MAX_TOKENS, current + tokensPerCall));
+    }
+
+    /**
+     * 申请发出一个对冲请求
+     *
+     * @return 预算不足时返回 false
+     */
+    public boolean tryAcquire() {
+        for (; ; ) {
+            long current = tokens.get();
+            if (current < UNIT) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - UNIT)) {
+                return true;
+            }
+        }
+    }
+}
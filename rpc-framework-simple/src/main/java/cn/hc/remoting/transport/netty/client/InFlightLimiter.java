@@ -0,0 +1,286 @@
+package cn.hc.remoting.transport.netty.client;
+
+import cn.hc.enums.RpcErrorMessageEnum;
+import cn.hc.exception.RpcException;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 背压：限制一个服务地址（提供者）上未完成的请求数，以及单个连接上未完成的请求数，连接写缓冲区超过高水位（不可写）时暂停发送
+ * <p>
+ * 连接饱和时按策略处理新请求：
+ * <ul>
+ *     <li>block：调用线程等待，直到有请求完成或连接恢复可写；在 IO 线程中（例如等待连接建立后发送）时按 queue 处理</li>
+ *     <li>queue：放入等待队列后立即返回，有空闲时按顺序发送，队列已满时快速失败</li>
+ *     <li>fail：立即以异常结束</li>
+ * </ul>
+ * 排队等待的时间计入请求的超时时间
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Slf4j
+public class InFlightLimiter {
+    /**
+     * 连接所属服务地址的限流器，连接恢复可写或关闭时据此发送排队的请求
+     */
+    public static final AttributeKey<InFlightLimiter> IN_FLIGHT_LIMITER = AttributeKey.valueOf("inFlightLimiter");
+    /**
+     * 连接上已获准发送、尚未结束的请求数
+     */
+    private static final AttributeKey<AtomicInteger> CHANNEL_IN_FLIGHT = AttributeKey.valueOf("channelInFlight");
+
+    public static final String BLOCK = "block";
+    public static final String QUEUE = "queue";
+    public static final String FAIL = "fail";
+
+    private final String address;
+    /**
+     * 选择一个可用于发送排队请求的连接
+     */
+    private final Supplier<Channel> channelSupplier;
+    private final int maxPerProvider;
+    private final int maxPerChannel;
+    private final String policy;
+    private final int maxQueued;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Deque<Waiter> waiters = new ConcurrentLinkedDeque<>();
+
+    /**
+     * @param address         服务地址
+     * @param channelSupplier 选择一个可用于发送排队请求的连接，没有时返回 null
+     * @param maxPerProvider  该地址上最多未完成的请求数，小于等于 0 时不限制
+     * @param maxPerChannel   单个连接上最多未完成的请求数，小于等于 0 时不限制
+     * @param policy          连接饱和时的处理方式
+     * @param maxQueued       最多排队等待的请求数
+     */
+    public InFlightLimiter(String address, Supplier<Channel> channelSupplier, int maxPerProvider, int maxPerChannel,
+                           String policy, int maxQueued) {
+        this.address = address;
+        this.channelSupplier = channelSupplier;
+        this.maxPerProvider = maxPerProvider;
+        this.maxPerChannel = maxPerChannel;
+        this.policy = policy;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * 申请在连接上发送一个请求，请求结束后必须以实际使用的连接调用 release
+     *
+     * @param channel
+     * @param timeoutMillis 最多等待的时间（毫秒），小于等于 0 表示不限时
+     * @return 获准发送时以实际使用的连接结束，被拒绝或等待超时时以异常结束
+     */
+    public CompletableFuture<Channel> acquire(Channel channel, long timeoutMillis) {
+        if (waiters.isEmpty() && tryAcquire(channel)) {
+            return CompletableFuture.completedFuture(channel);
+        }
+        if (FAIL.equals(policy)) {
+            return CompletableFuture.failedFuture(rejected("in flight [" + inFlight.get() + "]"));
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return CompletableFuture.failedFuture(rejected("queued [" + maxQueued + "]"));
+        }
+
+        Waiter waiter = new Waiter(timeoutMillis);
+        waiters.addLast(waiter);
+        // 入队前最后一个请求可能已经完成，补一次发送
+        drain();
+        if (BLOCK.equals(policy) && !inEventLoop(channel)) {
+            waiter.await();
+        }
+        return waiter.admitted;
+    }
+
+    /**
+     * 请求结束，释放配额并发送排队的请求
+     *
+     * @param channel 获准发送时使用的连接
+     */
+    public void release(Channel channel) {
+        undoAcquire(channel);
+        drain();
+    }
+
+    /**
+     * 按顺序发送排队的请求，直到没有空闲的配额或可写的连接
+     */
+    public void drain() {
+        while (!waiters.isEmpty()) {
+            Channel channel = channelSupplier.get();
+            if (channel == null || !tryAcquire(channel)) {
+                return;
+            }
+            Waiter waiter = waiters.pollFirst();
+            if (waiter == null) {
+                undoAcquire(channel);
+                return;
+            }
+            queued.decrementAndGet();
+            if (!waiter.admitted.complete(channel)) {
+                // 已经等待超时
+                undoAcquire(channel);
+            }
+        }
+    }
+
+    /**
+     * 未完成的请求数
+     *
+     * @return
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 排队等待的请求数
+     *
+     * @return
+     */
+    public int queued() {
+        return queued.get();
+    }
+
+    /**
+     * 连接是否饱和：写缓冲区超过高水位，或未完成的请求数达到上限
+     *
+     * @param channel
+     * @param maxPerChannel
+     * @return
+     */
+    public static boolean isSaturated(Channel channel, int maxPerChannel) {
+        return !channel.isWritable()
+                || (maxPerChannel > 0 && channelInFlight(channel).get() >= maxPerChannel);
+    }
+
+    /**
+     * 连接上尚未结束的请求数计数器，在申请配额时增加，而不是等到请求写出时，避免并发申请时超过上限
+     *
+     * @param channel
+     * @return
+     */
+    private static AtomicInteger channelInFlight(Channel channel) {
+        Attribute<AtomicInteger> attribute = channel.attr(CHANNEL_IN_FLIGHT);
+        AtomicInteger counter = attribute.get();
+        if (counter == null) {
+            counter = new AtomicInteger();
+            AtomicInteger old = attribute.setIfAbsent(counter);
+            if (old != null) {
+                counter = old;
+            }
+        }
+        return counter;
+    }
+
+    private boolean tryAcquire(Channel channel) {
+        if (!channel.isActive() || !channel.isWritable()) {
+            return false;
+        }
+        AtomicInteger channelInFlight = channelInFlight(channel);
+        if (!incrementIfBelow(channelInFlight, maxPerChannel)) {
+            return false;
+        }
+        if (!incrementIfBelow(inFlight, maxPerProvider)) {
+            channelInFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void undoAcquire(Channel channel) {
+        channelInFlight(channel).decrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * 计数未达到上限时加一
+     *
+     * @param counter
+     * @param max     上限，小于等于 0 时不限制
+     * @return
+     */
+    private static boolean incrementIfBelow(AtomicInteger counter, int max) {
+        if (max <= 0) {
+            counter.incrementAndGet();
+            return true;
+        }
+        for (; ; ) {
+            int current = counter.get();
+            if (current >= max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private RpcException rejected(String detail) {
+        return new RpcException(RpcErrorMessageEnum.REQUEST_REJECTED, address + " " + detail);
+    }
+
+    /**
+     * 当前线程是否为该连接所属 EventLoopGroup 中的 IO 线程，IO 线程不能阻塞等待
+     *
+     * @param channel
+     * @return
+     */
+    private static boolean inEventLoop(Channel channel) {
+        EventLoopGroup eventLoopGroup = channel.eventLoop().parent();
+        if (eventLoopGroup == null) {
+            return channel.eventLoop().inEventLoop();
+        }
+        for (EventExecutor executor : eventLoopGroup) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 排队等待的请求
+     */
+    private class Waiter {
+        private final CompletableFuture<Channel> admitted = new CompletableFuture<>();
+
+        Waiter(long timeoutMillis) {
+            if (timeoutMillis > 0) {
+                admitted.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            admitted.whenComplete((channel, throwable) -> {
+                if (throwable != null && waiters.remove(this)) {
+                    queued.decrementAndGet();
+                    log.warn("request waited [{}] ms for [{}] and timed out", timeoutMillis, address);
+                }
+            });
+        }
+
+        void await() {
+            try {
+                admitted.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted.completeExceptionally(e);
+            } catch (ExecutionException e) {
+                // 由调用方处理
+            }
+        }
+    }
+}
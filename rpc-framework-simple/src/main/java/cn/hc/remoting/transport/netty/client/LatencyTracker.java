@@ -0,0 +1,69 @@
+package cn.hc.remoting.transport.netty.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录一个方法最近的调用耗时，并估算其百分位数
+ * <p>
+ * 耗时保存在固定大小的环形数组中，每记录 RECOMPUTE_INTERVAL 次后重新排序计算一次百分位数，读取时无锁
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+public class LatencyTracker {
+    /**
+     * 保留的最近耗时样本数
+     */
+    private static final int WINDOW = 512;
+    /**
+     * 样本数不足时不估算百分位数
+     */
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final double percentile;
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile long cachedPercentile = -1;
+
+    /**
+     * @param percentile 百分位数，例如 95
+     */
+    public LatencyTracker(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * 记录一次调用耗时
+     *
+     * @param latencyMicros 耗时（微秒）
+     */
+    public void record(long latencyMicros) {
+        int n = count.getAndIncrement();
+        samples.set(Math.floorMod(n, WINDOW), latencyMicros);
+        if (n + 1 >= MIN_SAMPLES && (n + 1) % RECOMPUTE_INTERVAL == 0) {
+            recompute(Math.min(n + 1, WINDOW));
+        }
+    }
+
+    /**
+     * 最近一次估算的百分位耗时
+     *
+     * @return 耗时（微秒），样本不足时返回 -1
+     */
+    public long percentile() {
+        return cachedPercentile;
+    }
+
+    private void recompute(int size) {
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        cachedPercentile = sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+}
@@ -0,0 +1,109 @@
+package cn.hc.remoting.transport.netty.client;
+
+import cn.hc.remoting.dto.RpcHandshake;
+import cn.hc.remoting.dto.RpcRequest;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端的方法 Id 表
+ * <p>
+ * 记录所有被引用的方法签名，在连接建立时通过握手向服务端换取方法 Id，协商结果按 Channel 保存。
+ * 协商完成前发送的请求，以及服务端未提供的方法，仍使用完整的请求格式
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Slf4j
+public class MethodIdTable {
+    private static final AttributeKey<List<String>> OFFERED_SIGNATURES = AttributeKey.valueOf("offeredSignatures");
+    private static final AttributeKey<Map<String, Integer>> METHOD_IDS = AttributeKey.valueOf("methodIds");
+
+    /**
+     * 所有被引用的方法签名
+     */
+    private final Set<String> signatures = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 登记服务接口中的所有方法
+     *
+     * @param serviceInterface
+     * @param group
+     * @param version
+     */
+    public void register(Class<?> serviceInterface, String group, String version) {
+        for (Method method : serviceInterface.getMethods()) {
+            String rpcServiceName = method.getDeclaringClass().getName() + group + version;
+            signatures.add(RpcRequest.methodSignature(rpcServiceName, method.getName(), method.getParameterTypes()));
+        }
+    }
+
+    /**
+     * 为新建立的 Channel 构建握手请求
+     *
+     * @param channel
+     * @return
+     */
+    public RpcHandshake newHandshake(Channel channel) {
+        List<String> offered = new ArrayList<>(signatures);
+        channel.attr(OFFERED_SIGNATURES).set(offered);
+        return RpcHandshake.builder().signatures(offered).build();
+    }
+
+    /**
+     * 保存服务端返回的方法 Id
+     *
+     * @param channel
+     * @param response
+     */
+    public void onHandshake(Channel channel, RpcHandshake response) {
+        List<String> offered = channel.attr(OFFERED_SIGNATURES).getAndSet(null);
+        int[] ids = response.getMethodIds();
+        if (offered == null || offered.isEmpty()) {
+            return;
+        }
+        if (ids == null || ids.length != offered.size()) {
+            log.warn("Ignore mismatched handshake response from [{}]", channel.remoteAddress());
+            return;
+        }
+        Map<String, Integer> methodIds = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= 0) {
+                methodIds.put(offered.get(i), ids[i]);
+            }
+        }
+        channel.attr(METHOD_IDS).set(Collections.unmodifiableMap(methodIds));
+        log.info("Negotiated [{}] method ids with [{}]", methodIds.size(), channel.remoteAddress());
+    }
+
+    /**
+     * 服务端不支持握手时丢弃本次提供的方法签名，该连接上的请求都按完整的方法信息发送
+     *
+     * @param channel
+     */
+    public void onHandshakeFailed(Channel channel) {
+        channel.attr(OFFERED_SIGNATURES).set(null);
+    }
+
+    /**
+     * 查找请求在该 Channel 上协商得到的方法 Id
+     *
+     * @param channel
+     * @param rpcRequest
+     * @return 未协商时返回 null
+     */
+    public Integer getMethodId(Channel channel, RpcRequest rpcRequest) {
+        Map<String, Integer> methodIds = channel.attr(METHOD_IDS).get();
+        return methodIds == null ? null : methodIds.get(rpcRequest.getMethodSignature());
+    }
+}
@@ -1,30 +1,44 @@
 package cn.hc.remoting.transport.netty.client;
 
-import cn.hc.enums.CompressTypeEnum;
+import cn.hc.compress.CompressPolicy;
+import cn.hc.config.RpcConfig;
+import cn.hc.enums.RpcConfigEnum;
+import cn.hc.enums.RpcErrorMessageEnum;
+import cn.hc.enums.RpcResponseCodeEnum;
 import cn.hc.enums.SerializationTypeEnum;
+import cn.hc.exception.RpcException;
 import cn.hc.extension.ExtensionLoader;
 import cn.hc.factory.SingletonFactory;
 import cn.hc.registry.ServiceDiscovery;
 import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcAttachments;
 import cn.hc.remoting.dto.RpcMessage;
 import cn.hc.remoting.dto.RpcRequest;
 import cn.hc.remoting.dto.RpcResponse;
 import cn.hc.remoting.transport.RpcRequestTransport;
+import cn.hc.remoting.transport.netty.NettyTransportUtil;
 import cn.hc.remoting.transport.netty.codec.RpcMessageDecoder;
 import cn.hc.remoting.transport.netty.codec.RpcMessageEncoder;
+import cn.hc.remoting.transport.netty.flush.FlushBatchingHandler;
+import cn.hc.remoting.transport.netty.flush.FlushStatistics;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
-import lombok.SneakyThrows;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author HCong
@@ -32,27 +46,82 @@ import java.util.concurrent.TimeUnit;
  */
 @Slf4j
 public class NettyRpcClient implements RpcRequestTransport {
+    private static final double DEFAULT_HEDGE_BUDGET = 0.05;
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+
     /**
      * 提供服务发现功能
      */
     private final ServiceDiscovery serviceDiscovery;
     private final ChannelProvider channelProvider;
-    private final UnprocessedRequests unprocessedRequests;
+    private final CompressPolicy compressPolicy;
+    private final MethodIdTable methodIdTable;
+    /**
+     * 默认使用的序列化方式
+     */
+    private final byte defaultCodec;
+    /**
+     * 默认的超时时间（毫秒）
+     */
+    private final long defaultTimeout;
+    /**
+     * 是否在创建代理时预先建立连接
+     */
+    private final boolean warmUp;
+    /**
+     * 请求合并的最大请求数和时间窗口（微秒）
+     */
+    private final int batchMaxSize;
+    private final long batchWindowMicros;
+    /**
+     * 背压配置
+     */
+    private final int maxInFlightPerProvider;
+    private final int maxInFlightPerChannel;
+    private final String backpressurePolicy;
+    private final int backpressureQueueSize;
+    /**
+     * 正在建立的连接，key 为服务地址
+     */
+    private final Map<String, CompletableFuture<Channel>> connectingChannels = new ConcurrentHashMap<>();
+    /**
+     * 各服务地址的背压限流器，key 为服务地址
+     */
+    private final Map<String, InFlightLimiter> inFlightLimiters = new ConcurrentHashMap<>();
+    /**
+     * 所有连接共享的刷新统计
+     */
+    private final FlushStatistics flushStatistics = new FlushStatistics();
+    /**
+     * 对冲请求的预算，以及各方法最近的调用耗时，key 为方法签名
+     */
+    private final HedgeBudget hedgeBudget;
+    private final double hedgePercentile;
+    private final Map<String, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
 
     private final Bootstrap bootstrap;
     private final EventLoopGroup eventLoopGroup;
 
     public NettyRpcClient() {
+        int flushMaxMessages = RpcConfig.getInt(RpcConfigEnum.FLUSH_MAX_MESSAGES, RpcConstants.DEFAULT_FLUSH_MAX_MESSAGES);
+        int flushDelayMicros = RpcConfig.getInt(RpcConfigEnum.FLUSH_DELAY_MICROS, 0);
+        WriteBufferWaterMark writeBufferWaterMark = new WriteBufferWaterMark(
+                RpcConfig.getInt(RpcConfigEnum.WRITE_BUFFER_LOW_WATER_MARK, RpcConstants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK),
+                RpcConfig.getInt(RpcConfigEnum.WRITE_BUFFER_HIGH_WATER_MARK, RpcConstants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK));
         bootstrap = new Bootstrap();
-        eventLoopGroup = new NioEventLoopGroup();
+        eventLoopGroup = NettyTransportUtil.newEventLoopGroup(0);
 
         bootstrap.group(eventLoopGroup)
-                .channel(NioSocketChannel.class)
+                .channel(NettyTransportUtil.socketChannelClass())
                 .handler(new LoggingHandler(LogLevel.DEBUG))                 // 日志
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)    // 连接最大时间
-                .handler(new ChannelInitializer<NioSocketChannel>() {
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark)   // 写缓冲区超过高水位后连接不可写，暂停发送
+                .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
-                    protected void initChannel(NioSocketChannel ch) throws Exception {
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        if (flushMaxMessages > 1) {
+                            ch.pipeline().addLast(new FlushBatchingHandler(flushMaxMessages, flushDelayMicros, flushStatistics));   // 合并刷新
+                        }
                         ch.pipeline().addLast(new IdleStateHandler(0, 5, 0, TimeUnit.SECONDS));   // 心跳检测，每隔 5 秒发送 Ping 包
                         ch.pipeline().addLast(new RpcMessageEncoder());      // 自定义协议编码器
                         ch.pipeline().addLast(new RpcMessageDecoder());      // 自定义协议解码器
@@ -60,30 +129,43 @@ public class NettyRpcClient implements RpcRequestTransport {
                     }
                 });
 
+        NettyTransportUtil.applyClientOptions(bootstrap);   // epoll 专有选项
+
         this.serviceDiscovery = ExtensionLoader.getExtensionLoader(ServiceDiscovery.class).getExtension("zk");
         this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
-        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        this.compressPolicy = SingletonFactory.getInstance(CompressPolicy.class);
+        this.methodIdTable = SingletonFactory.getInstance(MethodIdTable.class);
+        this.defaultCodec = SerializationTypeEnum.getCode(RpcConfig.getString(RpcConfigEnum.SERIALIZER, SerializationTypeEnum.HESSIAN.getName()));
+        this.defaultTimeout = RpcConfig.getInt(RpcConfigEnum.TIMEOUT, RpcConstants.DEFAULT_TIMEOUT);
+        this.warmUp = RpcConfig.getBoolean(RpcConfigEnum.CONNECTION_WARMUP, false);
+        this.batchMaxSize = RpcConfig.getInt(RpcConfigEnum.BATCH_MAX_SIZE, 0);
+        this.batchWindowMicros = RpcConfig.getInt(RpcConfigEnum.BATCH_WINDOW_MICROS, 0);
+        this.maxInFlightPerProvider = RpcConfig.getInt(RpcConfigEnum.MAX_IN_FLIGHT_PER_PROVIDER, 0);
+        this.maxInFlightPerChannel = RpcConfig.getInt(RpcConfigEnum.MAX_IN_FLIGHT_PER_CHANNEL, 0);
+        this.backpressurePolicy = RpcConfig.getString(RpcConfigEnum.BACKPRESSURE_POLICY, InFlightLimiter.QUEUE);
+        this.backpressureQueueSize = RpcConfig.getInt(RpcConfigEnum.BACKPRESSURE_QUEUE_SIZE, RpcConstants.DEFAULT_BACKPRESSURE_QUEUE_SIZE);
+        this.hedgeBudget = new HedgeBudget(RpcConfig.getDouble(RpcConfigEnum.HEDGE_BUDGET, DEFAULT_HEDGE_BUDGET));
+        this.hedgePercentile = RpcConfig.getDouble(RpcConfigEnum.HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE);
     }
 
     /**
-     * 连接服务器并返回对应的 Channel
+     * 异步连接服务器，连接失败时 future 以异常结束
      *
      * @param inetSocketAddress
      * @return
      */
-    @SneakyThrows
-    public Channel doConnect(InetSocketAddress inetSocketAddress) {
+    public CompletableFuture<Channel> doConnect(InetSocketAddress inetSocketAddress) {
         CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
         bootstrap.connect(inetSocketAddress).addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
                 log.info("The client has connected [{}] successful!", inetSocketAddress.toString());
                 completableFuture.complete(future.channel());
             } else {
-                throw new IllegalStateException();
-
+                log.error("The client failed to connect [{}]", inetSocketAddress.toString(), future.cause());
+                completableFuture.completeExceptionally(future.cause());
             }
         });
-        return completableFuture.get();
+        return completableFuture;
     }
 
 
@@ -100,52 +182,331 @@ public class NettyRpcClient implements RpcRequestTransport {
 
         // 根据 interfaceName 在服务中心寻找具体提供服务的Service
         InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest);
-        // 获取 Channel
-        Channel channel = getChannel(inetSocketAddress);
-        if (channel.isActive()) {
-            // 保存未处理的请求
-            unprocessedRequests.put(rpcRequest.getRequestID(), resultFuture);
-            // 构建需要发送的消息
-            RpcMessage rpcMessage = RpcMessage.builder()
-                    .messageType(RpcConstants.REQUEST_TYPE)
-                    .codec(SerializationTypeEnum.HESSIAN.getCode())
-                    .compress(CompressTypeEnum.GZIP.getCode())
-                    .data(rpcRequest)
-                    .build();
-
-            // 发送请求
-            channel.writeAndFlush(rpcMessage)
-                    .addListener((ChannelFutureListener) future -> {
-                        if (future.isSuccess()) {
-                            log.info("client send message: [{}]", rpcMessage);
-                        } else {
-                            future.channel().close();
-                            // 将返回结果异步写回缓存中的 Map，这样就不用阻塞主线程
-                            resultFuture.completeExceptionally(future.cause());
-                            log.error("Send failed:", future.cause());
-                        }
-                    });
+        if (rpcRequest.isHedge() && !rpcRequest.isOneway()) {
+            sendHedged(inetSocketAddress, rpcRequest, resultFuture);
         } else {
-            throw new IllegalStateException();
+            sendTo(inetSocketAddress, rpcRequest, resultFuture);
         }
 
         return resultFuture;
     }
 
+    /**
+     * 发送对冲请求：超过对冲等待时间仍未收到响应，且预算允许时，向另一个服务提供者发送相同的请求，以先返回的成功响应为准，
+     * 所有请求都失败时以最后一个失败结束
+     *
+     * @param primaryAddress
+     * @param rpcRequest
+     * @param resultFuture
+     */
+    private void sendHedged(InetSocketAddress primaryAddress, RpcRequest rpcRequest, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        LatencyTracker latencyTracker = latencyTrackers.computeIfAbsent(rpcRequest.getMethodSignature(),
+                signature -> new LatencyTracker(hedgePercentile));
+        hedgeBudget.onCall();
+        // 尚未结束的请求数，降为 0 后不再发出对冲请求
+        AtomicInteger attempts = new AtomicInteger(1);
+        sendAttempt(primaryAddress, rpcRequest, resultFuture, attempts, latencyTracker);
+
+        long delayMicros = rpcRequest.getHedgeDelay() > 0
+                ? TimeUnit.MILLISECONDS.toMicros(rpcRequest.getHedgeDelay()) : latencyTracker.percentile();
+        if (delayMicros <= 0) {
+            // 还没有足够的耗时样本
+            return;
+        }
+        // 在调用线程上选出对冲地址，定时任务运行在 Netty 的事件循环上，不能在其中访问注册中心
+        InetSocketAddress hedgeAddress = serviceDiscovery.lookupService(rpcRequest, Collections.singleton(primaryAddress));
+        if (hedgeAddress == null) {
+            // 没有其他服务提供者
+            return;
+        }
+        ScheduledFuture<?> hedgeTask = eventLoopGroup.schedule(() -> {
+            if (resultFuture.isDone() || !hedgeBudget.tryAcquire()) {
+                return;
+            }
+            if (attempts.getAndUpdate(n -> n > 0 ? n + 1 : n) == 0) {
+                return;
+            }
+            log.debug("hedge request [{}] to [{}] after [{}] us", rpcRequest.getMethodSignature(), hedgeAddress, delayMicros);
+            sendAttempt(hedgeAddress, rpcRequest, resultFuture, attempts, latencyTracker);
+        }, delayMicros, TimeUnit.MICROSECONDS);
+        resultFuture.whenComplete((rpcResponse, throwable) -> hedgeTask.cancel(false));
+    }
+
+    /**
+     * 发送对冲调用中的一个请求，只有成功的响应能够结束调用并记录耗时，失败的响应与异常一样计为失败的请求，
+     * 所有请求都失败时以最后一个失败（失败的响应或异常）结束
+     *
+     * @param inetSocketAddress
+     * @param rpcRequest
+     * @param resultFuture
+     * @param attempts
+     * @param latencyTracker
+     */
+    private void sendAttempt(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest, CompletableFuture<RpcResponse<Object>> resultFuture,
+                             AtomicInteger attempts, LatencyTracker latencyTracker) {
+        CompletableFuture<RpcResponse<Object>> attemptFuture = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        attemptFuture.whenComplete((rpcResponse, throwable) -> {
+            if (throwable == null && isSuccess(rpcResponse)) {
+                latencyTracker.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+                resultFuture.complete(rpcResponse);
+            } else if (attempts.decrementAndGet() == 0) {
+                if (throwable == null) {
+                    resultFuture.complete(rpcResponse);
+                } else {
+                    resultFuture.completeExceptionally(throwable);
+                }
+            }
+        });
+        sendTo(inetSocketAddress, rpcRequest, attemptFuture);
+    }
+
+    private boolean isSuccess(RpcResponse<Object> rpcResponse) {
+        return rpcResponse != null && rpcResponse.getCode() != null && rpcResponse.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode());
+    }
+
+    /**
+     * 向指定的服务地址发送请求
+     *
+     * @param inetSocketAddress
+     * @param rpcRequest
+     * @param resultFuture
+     */
+    private void sendTo(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        InFlightLimiter inFlightLimiter = getInFlightLimiter(inetSocketAddress);
+        long timeout = rpcRequest.getTimeout() != null ? rpcRequest.getTimeout() : defaultTimeout;
+        long startNanos = System.nanoTime();
+        // 获取 Channel，需要新建连接时在连接建立后再发送，不阻塞调用线程
+        getChannel(inetSocketAddress)
+                .thenCompose(channel -> inFlightLimiter.acquire(channel, timeout))
+                .whenComplete((channel, throwable) -> {
+                    if (throwable != null) {
+                        resultFuture.completeExceptionally(unwrap(throwable, timeout));
+                        return;
+                    }
+                    resultFuture.whenComplete((rpcResponse, cause) -> inFlightLimiter.release(channel));
+                    // 排队等待的时间计入超时时间
+                    long remaining = timeout;
+                    if (timeout > 0) {
+                        remaining = Math.max(1, timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    }
+                    send(channel, rpcRequest, remaining, resultFuture);
+                });
+    }
+
+    /**
+     * 获取服务地址对应的背压限流器
+     *
+     * @param inetSocketAddress
+     * @return
+     */
+    private InFlightLimiter getInFlightLimiter(InetSocketAddress inetSocketAddress) {
+        return inFlightLimiters.computeIfAbsent(inetSocketAddress.toString(), address -> new InFlightLimiter(address,
+                () -> channelProvider.get(inetSocketAddress, false), maxInFlightPerProvider, maxInFlightPerChannel,
+                backpressurePolicy, backpressureQueueSize));
+    }
+
+    /**
+     * 取出 CompletableFuture 包装的异常，排队超时转换为请求超时
+     *
+     * @param throwable
+     * @param timeout
+     * @return
+     */
+    private Throwable unwrap(Throwable throwable, long timeout) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        if (cause instanceof TimeoutException) {
+            return new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, "waited " + timeout + " ms for a saturated channel");
+        }
+        return cause;
+    }
+
+    /**
+     * 在 Channel 上发送请求
+     *
+     * @param channel
+     * @param rpcRequest
+     * @param timeout      超时时间（毫秒），小于等于 0 表示不超时
+     * @param resultFuture
+     */
+    private void send(Channel channel, RpcRequest rpcRequest, long timeout, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        // 单向调用依赖 v2 头部的标志位，v1 连接上退化为普通调用
+        if (rpcRequest.isOneway() && isVersion2(channel)) {
+            sendOneway(channel, rpcRequest, resultFuture);
+            return;
+        }
+        // 保存未处理的请求，并分配该连接内的请求 id
+        UnprocessedRequests unprocessedRequests = UnprocessedRequests.of(channel);
+        long requestId = unprocessedRequests.put(resultFuture, timeout);
+        if (!channel.isActive() || requestId < 0) {
+            RpcException closed = new RpcException(RpcErrorMessageEnum.CONNECTION_CLOSED, channel.toString());
+            unprocessedRequests.fail(requestId, closed);
+            resultFuture.completeExceptionally(closed);
+            return;
+        }
+
+        // v1 连接上把请求 id 同时写入消息体，响应按消息体中回显的 id 匹配；
+        // 同一个请求对象可能同时发往多个连接（对冲请求），因此写入副本
+        if (!isVersion2(channel)) {
+            rpcRequest = rpcRequest.toBuilder().requestID(String.valueOf(requestId)).build();
+        }
+
+        // 构建需要发送的消息，已协商到方法 Id 时使用紧凑请求；紧凑请求不携带消息体中的请求 id，只在 v2 连接上使用
+        Integer methodId = isVersion2(channel) ? methodIdTable.getMethodId(channel, rpcRequest) : null;
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .messageType(methodId != null ? RpcConstants.COMPACT_REQUEST_TYPE : RpcConstants.REQUEST_TYPE)
+                .requestId(requestId)
+                .methodId(methodId != null ? methodId : 0)
+                .codec(rpcRequest.getCodec() != null ? rpcRequest.getCodec() : defaultCodec)
+                .compress(rpcRequest.getCompress() != null ? rpcRequest.getCompress() : compressPolicy.getCompressType())
+                .attachments(attachments(rpcRequest, timeout))
+                .data(rpcRequest)
+                .build();
+
+        // 开启请求合并时交给合并器发送，批量请求帧只在 v2 连接上使用；
+        // 批量请求只有一份附加信息，携带链路追踪 id 或租户的请求单独发送
+        if (batchMaxSize > 1 && isVersion2(channel) && rpcRequest.getTraceId() == null && rpcRequest.getTenant() == null) {
+            RequestBatcher.of(channel, batchMaxSize, batchWindowMicros).add(rpcMessage);
+            return;
+        }
+
+        // 发送请求
+        channel.writeAndFlush(rpcMessage)
+                .addListener((ChannelFutureListener) future -> {
+                    if (future.isSuccess()) {
+                        log.info("client send message: [{}]", rpcMessage);
+                    } else {
+                        future.channel().close();
+                        // 将返回结果异步写回缓存中的 Map，这样就不用阻塞主线程
+                        unprocessedRequests.fail(requestId, future.cause());
+                        log.error("Send failed:", future.cause());
+                    }
+                });
+    }
+
+    /**
+     * 发送单向请求：不登记未处理的请求，写出成功后即以空的成功响应结束
+     *
+     * @param channel
+     * @param rpcRequest
+     * @param resultFuture
+     */
+    private void sendOneway(Channel channel, RpcRequest rpcRequest, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        Integer methodId = methodIdTable.getMethodId(channel, rpcRequest);
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .messageType(methodId != null ? RpcConstants.COMPACT_REQUEST_TYPE : RpcConstants.REQUEST_TYPE)
+                .methodId(methodId != null ? methodId : 0)
+                .codec(rpcRequest.getCodec() != null ? rpcRequest.getCodec() : defaultCodec)
+                .compress(rpcRequest.getCompress() != null ? rpcRequest.getCompress() : compressPolicy.getCompressType())
+                .flags(RpcConstants.FLAG_ONEWAY)
+                .attachments(attachments(rpcRequest, 0))
+                .data(rpcRequest)
+                .build();
+
+        channel.writeAndFlush(rpcMessage)
+                .addListener((ChannelFutureListener) future -> {
+                    if (future.isSuccess()) {
+                        resultFuture.complete(RpcResponse.success(null));
+                    } else {
+                        future.channel().close();
+                        resultFuture.completeExceptionally(future.cause());
+                        log.error("Send failed:", future.cause());
+                    }
+                });
+    }
+
+    /**
+     * 连接是否已协商为 v2 协议
+     *
+     * @param channel
+     * @return
+     */
+    private boolean isVersion2(Channel channel) {
+        Byte version = channel.attr(RpcMessageEncoder.PROTOCOL_VERSION).get();
+        return version != null && version >= RpcConstants.VERSION_2;
+    }
+
+    /**
+     * 构建请求的附加信息（仅 v2 协议）：超时时间作为剩余时间放入，服务端据此跳过调用方已经放弃的请求；
+     * 链路追踪 id 和租户原样放入，服务端处理请求时放入 RpcContext
+     *
+     * @param rpcRequest
+     * @param timeout
+     * @return 没有附加信息时返回 null
+     */
+    private RpcAttachments attachments(RpcRequest rpcRequest, long timeout) {
+        RpcAttachments attachments = new RpcAttachments();
+        if (timeout > 0) {
+            attachments.putLong(RpcAttachments.DEADLINE, timeout);
+        }
+        if (rpcRequest.getTraceId() != null) {
+            attachments.putString(RpcAttachments.TRACE_ID, rpcRequest.getTraceId());
+        }
+        if (rpcRequest.getTenant() != null) {
+            attachments.putString(RpcAttachments.TENANT, rpcRequest.getTenant());
+        }
+        return attachments.isEmpty() ? null : attachments;
+    }
+
     /**
      * 获取 Channel
+     * <p>
+     * 同一地址同一时刻只建立一个连接，并发的调用共享同一个连接 future；
+     * 连接建立期间池中已有连接时直接使用已有连接，不等待新连接
      *
      * @param inetSocketAddress
      * @return
      */
-    public Channel getChannel(InetSocketAddress inetSocketAddress) {
-        Channel channel = channelProvider.get(inetSocketAddress);
-        if (channel == null) {
-            // 如果 Channel 不存在就创建一个
-            channel = doConnect(inetSocketAddress);
-            channelProvider.set(inetSocketAddress, channel);
+    public CompletableFuture<Channel> getChannel(InetSocketAddress inetSocketAddress) {
+        String key = inetSocketAddress.toString();
+        CompletableFuture<Channel> connecting = connectingChannels.get(key);
+        Channel channel = channelProvider.get(inetSocketAddress, connecting == null);
+        if (channel != null) {
+            return CompletableFuture.completedFuture(channel);
+        }
+        if (connecting != null) {
+            return connecting;
+        }
+
+        CompletableFuture<Channel> created = new CompletableFuture<>();
+        connecting = connectingChannels.putIfAbsent(key, created);
+        if (connecting != null) {
+            return connecting;
         }
-        return channel;
+        doConnect(inetSocketAddress).whenComplete((connected, throwable) -> {
+            // 先移除再完成 future，之后的调用直接从连接池中选择连接
+            connectingChannels.remove(key, created);
+            if (throwable != null) {
+                created.completeExceptionally(throwable);
+            } else {
+                connected.attr(InFlightLimiter.IN_FLIGHT_LIMITER).set(getInFlightLimiter(inetSocketAddress));
+                created.complete(channelProvider.set(inetSocketAddress, connected));
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 预先与服务的所有提供者建立连接，避免第一次调用承担建立连接的延迟（rpc.connections.warmup 为 true 时生效）
+     *
+     * @param rpcServiceName
+     */
+    @Override
+    public void warmUp(String rpcServiceName) {
+        if (!warmUp) {
+            return;
+        }
+        for (InetSocketAddress inetSocketAddress : serviceDiscovery.lookupAllServices(rpcServiceName)) {
+            getChannel(inetSocketAddress);
+        }
+    }
+
+    public FlushStatistics getFlushStatistics() {
+        return flushStatistics;
+    }
+
+    public byte getDefaultCodec() {
+        return defaultCodec;
     }
 
     /**
@@ -1,11 +1,16 @@
 package cn.hc.remoting.transport.netty.client;
 
 import cn.hc.enums.CompressTypeEnum;
+import cn.hc.enums.RpcErrorMessageEnum;
 import cn.hc.enums.SerializationTypeEnum;
+import cn.hc.exception.RpcException;
 import cn.hc.factory.SingletonFactory;
 import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcBatchResponse;
+import cn.hc.remoting.dto.RpcHandshake;
 import cn.hc.remoting.dto.RpcMessage;
 import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.remoting.transport.netty.codec.RpcMessageEncoder;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -15,7 +20,7 @@ import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetSocketAddress;
+import java.util.List;
 
 /**
  * @author HCong
@@ -23,12 +28,76 @@ import java.net.InetSocketAddress;
  */
 @Slf4j
 public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
-    private final UnprocessedRequests unprocessedRequests;
+    private UnprocessedRequests unprocessedRequests;
     private final NettyRpcClient nettyRpcClient;
+    private final MethodIdTable methodIdTable;
 
     public NettyRpcClientHandler() {
-        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
         this.nettyRpcClient = SingletonFactory.getInstance(NettyRpcClient.class);
+        this.methodIdTable = SingletonFactory.getInstance(MethodIdTable.class);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.unprocessedRequests = UnprocessedRequests.of(ctx.channel());
+    }
+
+    /**
+     * 连接断开后，该连接上所有未收到响应的请求都以异常结束
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        unprocessedRequests.failAll(new RpcException(RpcErrorMessageEnum.CONNECTION_CLOSED, String.valueOf(ctx.channel().remoteAddress())));
+        // 排队等待的请求改由其他连接发送
+        drainInFlightLimiter(ctx);
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 连接恢复可写后，发送因背压排队等待的请求
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drainInFlightLimiter(ctx);
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    private void drainInFlightLimiter(ChannelHandlerContext ctx) {
+        InFlightLimiter inFlightLimiter = ctx.channel().attr(InFlightLimiter.IN_FLIGHT_LIMITER).get();
+        if (inFlightLimiter != null) {
+            inFlightLimiter.drain();
+        }
+    }
+
+    /**
+     * 连接建立后立即发送握手消息，与服务端协商协议版本和方法 Id。
+     * 握手信息放在 v1 心跳消息的消息体中发送：只支持 v1 的服务端忽略消息体并返回普通心跳响应，
+     * 此时该连接继续使用 v1；支持握手的服务端返回握手响应
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        RpcHandshake rpcHandshake = methodIdTable.newHandshake(ctx.channel());
+        rpcHandshake.setVersion(RpcConstants.VERSION);
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .messageType(RpcConstants.HEARTBEAT_REQUEST_TYPE)
+                .version(RpcConstants.VERSION_1)
+                .codec(nettyRpcClient.getDefaultCodec())
+                .compress(CompressTypeEnum.NONE.getCode())
+                .data(rpcHandshake)
+                .build();
+        ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        super.channelActive(ctx);
     }
 
     /**
@@ -48,9 +117,30 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
                 byte messageType = tmp.getMessageType();
                 if (messageType == RpcConstants.RESPONSE_TYPE) {
                     RpcResponse<Object> rpcResponse = (RpcResponse<Object>) tmp.getData();
-                    unprocessedRequests.complete(rpcResponse);
+                    unprocessedRequests.complete(responseRequestId(tmp, rpcResponse), rpcResponse);
+                } else if (messageType == RpcConstants.BATCH_RESPONSE_TYPE) {
+                    RpcBatchResponse rpcBatchResponse = (RpcBatchResponse) tmp.getData();
+                    long[] requestIds = rpcBatchResponse.getRequestIds();
+                    List<RpcResponse<Object>> responses = rpcBatchResponse.getResponses();
+                    for (int i = 0; i < requestIds.length; i++) {
+                        unprocessedRequests.complete(requestIds[i], responses.get(i));
+                    }
+                } else if (messageType == RpcConstants.HANDSHAKE_RESPONSE_TYPE) {
+                    RpcHandshake rpcHandshake = (RpcHandshake) tmp.getData();
+                    // 此后该连接上的消息使用协商后的版本编码
+                    ctx.channel().attr(RpcMessageEncoder.PROTOCOL_VERSION).set(rpcHandshake.getVersion());
+                    if (rpcHandshake.getVersion() >= RpcConstants.VERSION_2) {
+                        unprocessedRequests.useLongRequestIds();
+                    }
+                    methodIdTable.onHandshake(ctx.channel(), rpcHandshake);
                 } else if (messageType == RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
                     log.info("heart [{}]", tmp.getData());
+                    if (ctx.channel().attr(RpcMessageEncoder.PROTOCOL_VERSION).get() == null) {
+                        // 握手时收到普通心跳响应，说明服务端只支持 v1
+                        log.info("server [{}] does not support the protocol handshake, use protocol v1", ctx.channel().remoteAddress());
+                        ctx.channel().attr(RpcMessageEncoder.PROTOCOL_VERSION).set(RpcConstants.VERSION_1);
+                        methodIdTable.onHandshakeFailed(ctx.channel());
+                    }
                 }
             }
         } finally {
@@ -58,6 +148,27 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 获取响应对应的请求 id：v2 帧使用头部中的 id；v1 的服务端在头部写入的是自己的计数器，
+     * 因此 v1 帧使用消息体中回显的 id，没有回显时返回 -1，该响应不会匹配到任何请求
+     *
+     * @param rpcMessage
+     * @param rpcResponse
+     * @return
+     */
+    private long responseRequestId(RpcMessage rpcMessage, RpcResponse<Object> rpcResponse) {
+        if (rpcMessage.getVersion() != RpcConstants.VERSION_1) {
+            return rpcMessage.getRequestId();
+        }
+        String requestId = rpcResponse == null ? null : rpcResponse.getRequestId();
+        try {
+            return requestId == null ? -1 : Long.parseLong(requestId);
+        } catch (NumberFormatException e) {
+            log.warn("Ignore v1 response with malformed request id [{}]", requestId);
+            return -1;
+        }
+    }
+
     /**
      * 处理每隔 5s 向服务器发送 心跳 消息
      *
@@ -72,10 +183,11 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
             if (state == IdleState.WRITER_IDLE) {
                 log.info("write idle happen [{}]", ctx.channel().remoteAddress());
 
-                Channel channel = nettyRpcClient.getChannel((InetSocketAddress) ctx.channel().remoteAddress());
+                // 心跳发送在空闲的连接本身上，连接池中的其他连接各自维护心跳
+                Channel channel = ctx.channel();
                 RpcMessage rpcMessage = new RpcMessage();
                 rpcMessage.setCodec(SerializationTypeEnum.PROTOSTUFF.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
                 rpcMessage.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
                 rpcMessage.setData(RpcConstants.PING);
                 channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
@@ -0,0 +1,183 @@
+package cn.hc.remoting.transport.netty.client;
+
+import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcArguments;
+import cn.hc.remoting.dto.RpcAttachments;
+import cn.hc.remoting.dto.RpcBatchRequest;
+import cn.hc.remoting.dto.RpcMessage;
+import cn.hc.remoting.dto.RpcRequest;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求合并：同一连接上在 windowMicros 微秒内（为 0 时为事件循环的一轮内）到达的请求，或攒够 maxBatchSize 个请求时，
+ * 合并为一个批量请求帧发送，共用一个头部、一次压缩和一次写出
+ * <p>
+ * 只有一个请求时按普通请求发送。序列化方式或压缩方式不同的请求不会合并到同一帧中
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Slf4j
+public class RequestBatcher {
+    private static final AttributeKey<RequestBatcher> REQUEST_BATCHER = AttributeKey.valueOf("requestBatcher");
+
+    private final Channel channel;
+    private final int maxBatchSize;
+    private final long windowMicros;
+    private List<RpcMessage> pending = new ArrayList<>();
+    /**
+     * 当前批次的序号，用于识别过期的定时任务
+     */
+    private long batchNo;
+
+    private RequestBatcher(Channel channel, int maxBatchSize, long windowMicros) {
+        this.channel = channel;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMicros = windowMicros;
+    }
+
+    /**
+     * 获取 Channel 对应的请求合并器
+     *
+     * @param channel
+     * @param maxBatchSize
+     * @param windowMicros
+     * @return
+     */
+    public static RequestBatcher of(Channel channel, int maxBatchSize, long windowMicros) {
+        Attribute<RequestBatcher> attribute = channel.attr(REQUEST_BATCHER);
+        RequestBatcher requestBatcher = attribute.get();
+        if (requestBatcher == null) {
+            requestBatcher = new RequestBatcher(channel, maxBatchSize, windowMicros);
+            RequestBatcher old = attribute.setIfAbsent(requestBatcher);
+            if (old != null) {
+                requestBatcher = old;
+            }
+        }
+        return requestBatcher;
+    }
+
+    /**
+     * 加入一个已分配请求 id 的请求（普通请求或紧凑请求）
+     *
+     * @param rpcMessage
+     */
+    public void add(RpcMessage rpcMessage) {
+        long scheduleBatchNo = -1;
+        // 取出批次和写出在同一把锁内完成，各批次按取出的顺序进入 Channel 的写队列
+        synchronized (this) {
+            if (!pending.isEmpty() && !compatible(pending.get(0), rpcMessage)) {
+                write(drain());
+            }
+            pending.add(rpcMessage);
+            if (pending.size() >= maxBatchSize) {
+                write(drain());
+            } else if (pending.size() == 1) {
+                scheduleBatchNo = batchNo;
+            }
+        }
+        if (scheduleBatchNo >= 0) {
+            long currentBatchNo = scheduleBatchNo;
+            if (windowMicros > 0) {
+                channel.eventLoop().schedule(() -> flush(currentBatchNo), windowMicros, TimeUnit.MICROSECONDS);
+            } else {
+                channel.eventLoop().execute(() -> flush(currentBatchNo));
+            }
+        }
+    }
+
+    /**
+     * 窗口到期，发送该批次中尚未发送的请求
+     *
+     * @param expectedBatchNo
+     */
+    private void flush(long expectedBatchNo) {
+        synchronized (this) {
+            if (expectedBatchNo != batchNo || pending.isEmpty()) {
+                return;
+            }
+            write(drain());
+        }
+    }
+
+    private List<RpcMessage> drain() {
+        List<RpcMessage> batch = pending;
+        pending = new ArrayList<>();
+        batchNo++;
+        return batch;
+    }
+
+    private boolean compatible(RpcMessage first, RpcMessage rpcMessage) {
+        return first.getCodec() == rpcMessage.getCodec() && first.getCompress() == rpcMessage.getCompress();
+    }
+
+    /**
+     * 写出一个批次，调用方持有锁。在事件循环之外调用时 writeAndFlush 只是把写任务按调用顺序加入事件循环的任务队列
+     *
+     * @param batch
+     */
+    private void write(List<RpcMessage> batch) {
+        RpcMessage rpcMessage = batch.size() == 1 ? batch.get(0) : toBatchMessage(batch);
+        channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                future.channel().close();
+                UnprocessedRequests unprocessedRequests = UnprocessedRequests.of(future.channel());
+                for (RpcMessage message : batch) {
+                    unprocessedRequests.fail(message.getRequestId(), future.cause());
+                }
+                log.error("Send failed:", future.cause());
+            }
+        });
+    }
+
+    /**
+     * 合并为一个批量请求，批量请求的截止时间取其中最晚的一个
+     *
+     * @param batch
+     * @return
+     */
+    private RpcMessage toBatchMessage(List<RpcMessage> batch) {
+        int size = batch.size();
+        long[] requestIds = new long[size];
+        int[] methodIds = new int[size];
+        List<Object> requests = new ArrayList<>(size);
+        long remaining = 0;
+        for (int i = 0; i < size; i++) {
+            RpcMessage message = batch.get(i);
+            RpcRequest rpcRequest = (RpcRequest) message.getData();
+            requestIds[i] = message.getRequestId();
+            if (message.getMessageType() == RpcConstants.COMPACT_REQUEST_TYPE) {
+                methodIds[i] = message.getMethodId();
+                requests.add(new RpcArguments(rpcRequest.getParameters()));
+            } else {
+                methodIds[i] = -1;
+                requests.add(rpcRequest);
+            }
+            long timeout = message.getAttachments() == null ? 0 : message.getAttachments().getLong(RpcAttachments.DEADLINE, 0);
+            // 有一个请求不限时，整个批量请求就不限时
+            remaining = timeout <= 0 || (i > 0 && remaining <= 0) ? 0 : Math.max(remaining, timeout);
+        }
+
+        RpcAttachments attachments = null;
+        if (remaining > 0) {
+            attachments = new RpcAttachments();
+            attachments.putLong(RpcAttachments.DEADLINE, remaining);
+        }
+        RpcMessage first = batch.get(0);
+        return RpcMessage.builder()
+                .messageType(RpcConstants.BATCH_REQUEST_TYPE)
+                .codec(first.getCodec())
+                .compress(first.getCompress())
+                .attachments(attachments)
+                .data(RpcBatchRequest.builder().requestIds(requestIds).methodIds(methodIds).requests(requests).build())
+                .build();
+    }
+}
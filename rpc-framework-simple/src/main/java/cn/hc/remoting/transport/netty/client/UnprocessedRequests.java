@@ -1,34 +1,231 @@
 package cn.hc.remoting.transport.netty.client;
 
+import cn.hc.enums.RpcErrorMessageEnum;
+import cn.hc.exception.RpcException;
 import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.utils.concurrent.threadpool.ThreadPoolFactoryUtil;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 存放未被服务端处理的请求
+ * <p>
+ * 每个 Channel 一张表，请求 id 在 Channel 内单调递增并写在消息头中，响应直接根据头部的请求 id 找到对应的 future。
+ * v1 头部中的请求 id 只有 4 字节，协商出 v2 之前 id 在 32 位无符号数范围内回绕，并跳过仍未完成的 id。
+ * 表以 long 为 key，不需要装箱，也不会与其他连接的请求竞争同一把锁。
+ * 每个请求在共享的 HashedWheelTimer 上登记超时任务，超时后以异常结束并从表中移除
  *
  * @author HCong
  * @create 2022/8/5
  */
+@Slf4j
 public class UnprocessedRequests {
-    private static final Map<String, CompletableFuture<RpcResponse<Object>>> UNPROCESSED_RESPONSE_FUTURES = new ConcurrentHashMap<>();
+    private static final AttributeKey<UnprocessedRequests> UNPROCESSED_REQUESTS = AttributeKey.valueOf("unprocessedRequests");
+    /**
+     * v1 头部能携带的最大请求 id
+     */
+    private static final long MAX_V1_REQUEST_ID = 0xFFFFFFFFL;
+    /**
+     * 所有连接共享的超时定时器，精度 10 毫秒
+     */
+    private static final HashedWheelTimer TIMEOUT_TIMER = new HashedWheelTimer(
+            ThreadPoolFactoryUtil.createThreadFactory("rpc-timeout-timer", true), 10, TimeUnit.MILLISECONDS);
+
+    private final LongObjectMap<PendingRequest> unprocessedResponseFutures = new LongObjectHashMap<>();
+    private long nextRequestId = 1;
+    private long maxRequestId = MAX_V1_REQUEST_ID;
+    private boolean closed;
+    /**
+     * 未完成的请求数，供连接池无锁读取
+     */
+    private volatile int pendingCount;
+    /**
+     * 连续超时的请求数，收到任意响应后清零
+     */
+    private volatile int consecutiveTimeouts;
 
-    public void put(String requestId, CompletableFuture<RpcResponse<Object>> future) {
-        UNPROCESSED_RESPONSE_FUTURES.put(requestId, future);
+    /**
+     * 获取 Channel 对应的未处理请求表
+     *
+     * @param channel
+     * @return
+     */
+    public static UnprocessedRequests of(Channel channel) {
+        Attribute<UnprocessedRequests> attribute = channel.attr(UNPROCESSED_REQUESTS);
+        UnprocessedRequests unprocessedRequests = attribute.get();
+        if (unprocessedRequests == null) {
+            unprocessedRequests = new UnprocessedRequests();
+            UnprocessedRequests old = attribute.setIfAbsent(unprocessedRequests);
+            if (old != null) {
+                unprocessedRequests = old;
+            }
+        }
+        return unprocessedRequests;
     }
 
     /**
-     * 客户端接收到服务器发送的 RpcResponse 后，说明该消息已经处理，将其移除 UNPROCESSED_RESPONSE_FUTURES
+     * 为请求分配 id 并保存，超时未收到响应时以异常结束
+     *
+     * @param future
+     * @param timeoutMillis 超时时间（毫秒），小于等于 0 表示不超时
+     * @return 请求 id，连接已关闭时返回 -1
+     */
+    public synchronized long put(CompletableFuture<RpcResponse<Object>> future, long timeoutMillis) {
+        if (closed) {
+            return -1;
+        }
+        long requestId = nextRequestId();
+        Timeout timeout = null;
+        if (timeoutMillis > 0) {
+            timeout = TIMEOUT_TIMER.newTimeout(t -> timeout(requestId, timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        unprocessedResponseFutures.put(requestId, new PendingRequest(future, timeout));
+        pendingCount = unprocessedResponseFutures.size();
+        return requestId;
+    }
+
+    /**
+     * 连接协商出 v2 后，请求 id 使用 8 字节，不再回绕
+     */
+    public synchronized void useLongRequestIds() {
+        maxRequestId = Long.MAX_VALUE;
+    }
+
+    private long nextRequestId() {
+        for (; ; ) {
+            if (nextRequestId > maxRequestId) {
+                nextRequestId = 1;
+            }
+            long requestId = nextRequestId++;
+            if (!unprocessedResponseFutures.containsKey(requestId)) {
+                return requestId;
+            }
+        }
+    }
+
+    /**
+     * 客户端接收到服务器发送的 RpcResponse 后，说明该消息已经处理，将其移除
+     *
+     * @param requestId
      * @param rpcResponse
      */
-    public void complete(RpcResponse<Object> rpcResponse) {
-        CompletableFuture<RpcResponse<Object>> future = UNPROCESSED_RESPONSE_FUTURES.remove(rpcResponse.getRequestId());
-        if (null != future) {
-            future.complete(rpcResponse);
+    public void complete(long requestId, RpcResponse<Object> rpcResponse) {
+        PendingRequest pendingRequest = remove(requestId);
+        if (null != pendingRequest) {
+            consecutiveTimeouts = 0;
+            pendingRequest.future.complete(rpcResponse);
         } else {
-            throw new IllegalStateException();
+            log.warn("No unprocessed request found for response [{}]", requestId);
+        }
+    }
+
+    /**
+     * 请求发送失败，将其移除并以异常结束
+     *
+     * @param requestId
+     * @param cause
+     */
+    public void fail(long requestId, Throwable cause) {
+        PendingRequest pendingRequest = remove(requestId);
+        if (null != pendingRequest) {
+            pendingRequest.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 请求超时，记录连续超时次数后以异常结束
+     *
+     * @param requestId
+     * @param timeoutMillis
+     */
+    private void timeout(long requestId, long timeoutMillis) {
+        PendingRequest pendingRequest = remove(requestId);
+        if (null != pendingRequest) {
+            consecutiveTimeouts++;
+            pendingRequest.future.completeExceptionally(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                    "request [" + requestId + "] got no response in " + timeoutMillis + " ms"));
+        }
+    }
+
+    /**
+     * 未完成的请求数
+     *
+     * @return
+     */
+    public int pendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * 连续超时的请求数
+     *
+     * @return
+     */
+    public int consecutiveTimeouts() {
+        return consecutiveTimeouts;
+    }
+
+    /**
+     * 连接关闭后，所有未收到响应的请求都以异常结束，之后不再接收新的请求
+     *
+     * @param cause
+     */
+    public void failAll(Throwable cause) {
+        List<PendingRequest> pendingRequests;
+        synchronized (this) {
+            closed = true;
+            pendingRequests = new ArrayList<>(unprocessedResponseFutures.values());
+            unprocessedResponseFutures.clear();
+            pendingCount = 0;
+        }
+        for (PendingRequest pendingRequest : pendingRequests) {
+            pendingRequest.cancelTimeout();
+            pendingRequest.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 移除请求并取消其超时任务
+     *
+     * @param requestId
+     * @return
+     */
+    private PendingRequest remove(long requestId) {
+        PendingRequest pendingRequest;
+        synchronized (this) {
+            pendingRequest = unprocessedResponseFutures.remove(requestId);
+            pendingCount = unprocessedResponseFutures.size();
+        }
+        if (pendingRequest != null) {
+            pendingRequest.cancelTimeout();
+        }
+        return pendingRequest;
+    }
+
+    private static class PendingRequest {
+        private final CompletableFuture<RpcResponse<Object>> future;
+        private final Timeout timeout;
+
+        PendingRequest(CompletableFuture<RpcResponse<Object>> future, Timeout timeout) {
+            this.future = future;
+            this.timeout = timeout;
+        }
+
+        void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel();
+            }
         }
     }
 }
@@ -0,0 +1,75 @@
+package cn.hc.remoting.transport.netty.codec;
+
+import cn.hc.compress.Compress;
+import cn.hc.enums.CompressTypeEnum;
+import cn.hc.enums.SerializationTypeEnum;
+import cn.hc.extension.ExtensionLoader;
+import cn.hc.serialize.Serializer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 序列化器和压缩器的注册表
+ * <p>
+ * 启动时一次性通过 SPI 加载所有序列化器和压缩器，按协议头中的类型字节存入数组，
+ * 编解码时只需一次数组访问，不再逐条消息遍历枚举和查询 ExtensionLoader
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@Slf4j
+public class CodecRegistry {
+    private final Serializer[] serializers = new Serializer[256];
+    private final Compress[] compresses = new Compress[256];
+
+    public CodecRegistry() {
+        ExtensionLoader<Serializer> serializerLoader = ExtensionLoader.getExtensionLoader(Serializer.class);
+        for (SerializationTypeEnum type : SerializationTypeEnum.values()) {
+            serializers[type.getCode() & 0xFF] = serializerLoader.getExtension(type.getName());
+        }
+        ExtensionLoader<Compress> compressLoader = ExtensionLoader.getExtensionLoader(Compress.class);
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            compresses[type.getCode() & 0xFF] = compressLoader.getExtension(type.getName());
+        }
+    }
+
+    /**
+     * 根据协议头中的序列化类型获取序列化器
+     *
+     * @param codec
+     * @return
+     */
+    public Serializer getSerializer(byte codec) {
+        Serializer serializer = serializers[codec & 0xFF];
+        if (serializer == null) {
+            throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+        return serializer;
+    }
+
+    /**
+     * 根据协议头中的压缩类型获取压缩器
+     *
+     * @param compressType
+     * @return
+     */
+    public Compress getCompress(byte compressType) {
+        Compress compress = compresses[compressType & 0xFF];
+        if (compress == null) {
+            throw new IllegalArgumentException("Unknown compress type: " + compressType);
+        }
+        return compress;
+    }
+
+    /**
+     * 将服务接口注册到所有序列化器
+     *
+     * @param serviceInterface
+     */
+    public void registerService(Class<?> serviceInterface) {
+        for (Serializer serializer : serializers) {
+            if (serializer != null) {
+                serializer.registerService(serviceInterface);
+            }
+        }
+    }
+}
@@ -1,28 +1,42 @@
 package cn.hc.remoting.transport.netty.codec;
 
 import cn.hc.compress.Compress;
-import cn.hc.enums.CompressTypeEnum;
-import cn.hc.enums.SerializationTypeEnum;
-import cn.hc.extension.ExtensionLoader;
+import cn.hc.config.RpcConfig;
+import cn.hc.enums.RpcConfigEnum;
+import cn.hc.factory.SingletonFactory;
 import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcArguments;
+import cn.hc.remoting.dto.RpcAttachments;
+import cn.hc.remoting.dto.RpcBatchRequest;
+import cn.hc.remoting.dto.RpcBatchResponse;
+import cn.hc.remoting.dto.RpcHandshake;
 import cn.hc.remoting.dto.RpcMessage;
 import cn.hc.remoting.dto.RpcRequest;
 import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.remoting.handler.ServiceMethodTable;
 import cn.hc.serialize.Serializer;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.TooLongFrameException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * custom protocol decoder
  * <pre>
- *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
- *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
- *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |
- *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+
+ *   0     1     2     3     4        5     6     7     8         9          10      11     12    13    14    15   16
+ *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+--------+-----+-----+-----+-----+
+ *   |   magic   code        |version | full length         | messageType| codec|compress|       RequestId       |
+ *   +-----------------------+--------+---------------------+-----------+-----------+-----------+---------------+
  *   |                                                                                                       |
  *   |                                         body                                                          |
  *   |                                                                                                       |
@@ -32,12 +46,25 @@ import java.util.Arrays;
  * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
  * body（object类型数据）
  *
+ * 同时接受 v1 和 v2 的头部，v2 头部中的 requestId 为 8 字节，其后的标志位和附加信息保存在 RpcMessage 中。
+ * 分片帧（CHUNK_TYPE）暂存到收齐后重组为一条完整消息，重组后的大小受 rpc.max-message-size 限制。
+ * 发送方连续写出一条消息的全部分片，因此每个连接同时只允许一条未收齐的分片消息，其他请求 id 的分片视为协议错误
+ *
  * 继承 LengthFieldBasedFrameDecoder，即在处理消息之前保证了消息的完整性（避免黏包和半包问题的出现）
  * @author HCong
  * @create 2022/8/5
  */
 @Slf4j
 public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
+    private final ServiceMethodTable serviceMethodTable = SingletonFactory.getInstance(ServiceMethodTable.class);
+    private final CodecRegistry codecRegistry = SingletonFactory.getInstance(CodecRegistry.class);
+    private final int maxMessageSize = RpcConfig.getInt(RpcConfigEnum.MAX_MESSAGE_SIZE, RpcConstants.DEFAULT_MAX_MESSAGE_SIZE);
+    /**
+     * 正在接收分片的请求 id 和已收到的分片，只在 IO 线程中访问
+     */
+    private long pendingRequestId;
+    private CompositeByteBuf pendingChunks;
+
     public RpcMessageDecoder() {
         // lengthFieldOffset: magic code is 4B, and version is 1B, and then full length. so value is 5
         // lengthFieldLength: full length is 4B. so value is 4
@@ -100,7 +127,7 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
         // 验证魔数
         checkMagicNumber(in);
         // 验证版本
-        checkVersion(in);
+        byte version = checkVersion(in);
         // 读取消息总长度（头部 + 压缩后的消息体）
         int fullLength = in.readInt();
         // 读取 1 字节消息类型
@@ -109,17 +136,46 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
         byte codecType = in.readByte();
         // 读取 1 字节压缩方式
         byte compressType = in.readByte();
-        // 读取 4 字节消息 Id
-        int requestId = in.readInt();
+        // 读取消息 Id：v1 为 4 字节（按无符号数读取），v2 为 8 字节
+        long requestId = version == RpcConstants.VERSION_1 ? in.readUnsignedInt() : in.readLong();
 
-        //===========================16字节的头部已读取完毕==============================
+        //===========================16字节的 v1 头部已读取完毕==============================
+        int headLength = RpcConstants.HEAD_LENGTH;
+        byte flags = 0;
+        RpcAttachments attachments = null;
+        if (version == RpcConstants.VERSION_2) {
+            // 读取 1 字节标志位、2 字节附加信息长度和附加信息
+            flags = in.readByte();
+            int attachmentsLength = in.readUnsignedShort();
+            if (attachmentsLength > 0) {
+                attachments = RpcAttachments.decode(in, attachmentsLength);
+            }
+            headLength = RpcConstants.HEAD_LENGTH_V2 + attachmentsLength;
+        }
+        // 序列化器和压缩器直接按类型字节从注册表中取出，未知的类型在此处直接拒绝
+        Serializer serializer = codecRegistry.getSerializer(codecType);
+        Compress compress = codecRegistry.getCompress(compressType);
         // 重构请求消息
         RpcMessage rpcMessage = RpcMessage.builder()
+                .version(version)
                 .codec(codecType)
+                .compress(compressType)
                 .requestId(requestId)
                 .messageType(messageType)
+                .flags(flags)
+                .attachments(attachments)
                 .build();
-        if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
+        if (attachments != null) {
+            // 将剩余超时时间换算为本地截止时间，排队等待处理的时间也计算在内
+            long timeout = attachments.getLong(RpcAttachments.DEADLINE, 0);
+            if (timeout > 0) {
+                rpcMessage.setDeadline(System.currentTimeMillis() + timeout);
+            }
+        }
+        // 消息体长度（压缩后）
+        int bodyLength = fullLength - headLength;
+        // 心跳请求只有携带握手信息时才有消息体，只支持 v1 的对端会忽略该消息体
+        if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE && bodyLength == 0) {
             rpcMessage.setData(RpcConstants.PING);
             return rpcMessage;
         }
@@ -127,45 +183,172 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
             rpcMessage.setData(RpcConstants.PONG);
             return rpcMessage;
         }
-        // 消息体长度（压缩后）
-        int bodyLength = fullLength - RpcConstants.HEAD_LENGTH;
+        if (messageType == RpcConstants.CHUNK_TYPE) {
+            return decodeChunk(in, rpcMessage, serializer, compress);
+        }
+        decodeBody(in, bodyLength, rpcMessage, serializer, compress);
+        return rpcMessage;
+
+    }
+
+    /**
+     * 处理分片帧：分片数据以零拷贝的方式追加到 CompositeByteBuf 中，收到最后一个分片后再整体解码
+     *
+     * @param in
+     * @param rpcMessage
+     * @param serializer
+     * @param compress
+     * @return 收到最后一个分片前返回 null
+     */
+    private Object decodeChunk(ByteBuf in, RpcMessage rpcMessage, Serializer serializer, Compress compress) {
+        // 读取 1 字节原始消息类型和 1 字节是否为最后一个分片
+        byte messageType = in.readByte();
+        boolean last = in.readByte() != 0;
+        long requestId = rpcMessage.getRequestId();
+
+        if (pendingChunks == null) {
+            pendingChunks = in.alloc().compositeBuffer(Integer.MAX_VALUE);
+            pendingRequestId = requestId;
+        } else if (pendingRequestId != requestId) {
+            releasePendingChunks();
+            throw new DecoderException("chunk of request [" + requestId + "] interleaves with unfinished request [" + pendingRequestId + "]");
+        }
+        int chunkLength = in.readableBytes();
+        if ((long) pendingChunks.readableBytes() + chunkLength > maxMessageSize) {
+            releasePendingChunks();
+            throw new TooLongFrameException("message of request [" + requestId + "] exceeds " + maxMessageSize + " bytes");
+        }
+        pendingChunks.addComponent(true, in.readRetainedSlice(chunkLength));
+        if (!last) {
+            return null;
+        }
+
+        CompositeByteBuf chunks = pendingChunks;
+        pendingChunks = null;
+        try {
+            rpcMessage.setMessageType(messageType);
+            decodeBody(chunks, chunks.readableBytes(), rpcMessage, serializer, compress);
+            return rpcMessage;
+        } finally {
+            chunks.release();
+        }
+    }
+
+    /**
+     * 解压并反序列化消息体
+     *
+     * @param in
+     * @param bodyLength
+     * @param rpcMessage
+     * @param serializer
+     * @param compress
+     */
+    private void decodeBody(ByteBuf in, int bodyLength, RpcMessage rpcMessage, Serializer serializer, Compress compress) {
         if (bodyLength > 0) {
-            byte[] bs = new byte[bodyLength];
-            in.readBytes(bs);
-
-            // 解压缩
-            String compressName = CompressTypeEnum.getName(compressType);
-            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class).getExtension(compressName);
-            bs = compress.decompress(bs);
-
-            // 反序列化
-            String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-            log.info("codec name: [{}] ", codecName);
-            Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(codecName);
-
-            if (messageType == RpcConstants.REQUEST_TYPE) {
-                RpcRequest tmpValue = serializer.deserialize(bs, RpcRequest.class);
-                rpcMessage.setData(tmpValue);
-            } else {
-                RpcResponse tmpValue = serializer.deserialize(bs, RpcResponse.class);
-                rpcMessage.setData(tmpValue);
+            // 解压缩：直接在 frame 上构建输入流，解压后的数据流式交给反序列化器，不再拷贝出中间 byte[]。
+            // 解压流（如 gzip 的 Inflater）持有本地内存，使用后必须关闭
+            try (InputStream bodyInputStream = compress.decompress(new ByteBufInputStream(in, bodyLength))) {
+                // 反序列化
+                switch (rpcMessage.getMessageType()) {
+                    case RpcConstants.REQUEST_TYPE:
+                        rpcMessage.setData(serializer.deserialize(bodyInputStream, RpcRequest.class));
+                        break;
+                    case RpcConstants.COMPACT_REQUEST_TYPE:
+                        rpcMessage.setData(decodeCompactRequest(bodyInputStream, serializer));
+                        break;
+                    case RpcConstants.HEARTBEAT_REQUEST_TYPE:
+                    case RpcConstants.HANDSHAKE_REQUEST_TYPE:
+                    case RpcConstants.HANDSHAKE_RESPONSE_TYPE:
+                        rpcMessage.setData(serializer.deserialize(bodyInputStream, RpcHandshake.class));
+                        break;
+                    case RpcConstants.BATCH_REQUEST_TYPE:
+                        rpcMessage.setData(decodeBatchRequest(serializer.deserialize(bodyInputStream, RpcBatchRequest.class)));
+                        break;
+                    case RpcConstants.BATCH_RESPONSE_TYPE:
+                        rpcMessage.setData(serializer.deserialize(bodyInputStream, RpcBatchResponse.class));
+                        break;
+                    default:
+                        rpcMessage.setData(serializer.deserialize(bodyInputStream, RpcResponse.class));
+                }
+            } catch (IOException e) {
+                throw new DecoderException("Close body input stream error", e);
             }
         }
-        return rpcMessage;
+    }
+
+    /**
+     * 释放尚未收齐的分片
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        releasePendingChunks();
+        super.handlerRemoved0(ctx);
+    }
 
+    private void releasePendingChunks() {
+        if (pendingChunks != null) {
+            pendingChunks.release();
+            pendingChunks = null;
+        }
     }
 
     /**
-     * 验证版本
+     * 解析紧凑请求：根据方法 Id 从服务端方法表还原出完整的请求。
+     * 方法 Id 只能来自本端握手时分配的值，无法识别时视为协议错误
+     *
+     * @param bodyInputStream
+     * @param serializer
+     * @return
+     */
+    private RpcRequest decodeCompactRequest(InputStream bodyInputStream, Serializer serializer) {
+        try {
+            DataInputStream dataInputStream = new DataInputStream(bodyInputStream);
+            int methodId = dataInputStream.readInt();
+            RpcArguments arguments = serializer.deserialize(dataInputStream, RpcArguments.class);
+            return serviceMethodTable.newRequest(methodId, arguments.getValues());
+        } catch (IOException e) {
+            throw new DecoderException("Decode compact request error", e);
+        }
+    }
+
+    /**
+     * 将批量请求中的紧凑请求还原为完整的请求
+     *
+     * @param batchRequest
+     * @return
+     */
+    private RpcBatchRequest decodeBatchRequest(RpcBatchRequest batchRequest) {
+        int[] methodIds = batchRequest.getMethodIds();
+        List<Object> requests = batchRequest.getRequests();
+        if (methodIds == null || requests == null || methodIds.length != requests.size()
+                || batchRequest.getRequestIds() == null || batchRequest.getRequestIds().length != requests.size()) {
+            throw new DecoderException("Malformed batch request");
+        }
+        for (int i = 0; i < methodIds.length; i++) {
+            if (methodIds[i] >= 0) {
+                RpcArguments arguments = (RpcArguments) requests.get(i);
+                requests.set(i, serviceMethodTable.newRequest(methodIds[i], arguments.getValues()));
+            }
+        }
+        return batchRequest;
+    }
+
+    /**
+     * 验证版本，v1 和 v2 的帧都可以解码
      *
      * @param in
+     * @return
      */
-    private void checkVersion(ByteBuf in) {
+    private byte checkVersion(ByteBuf in) {
         byte version = in.readByte();
 
-        if (version != RpcConstants.VERSION) {
+        if (version != RpcConstants.VERSION_1 && version != RpcConstants.VERSION_2) {
             throw new RuntimeException("version isn't compatible" + version);
         }
+        return version;
     }
 
     /**
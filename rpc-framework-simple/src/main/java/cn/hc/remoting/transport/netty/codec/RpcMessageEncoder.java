@@ -2,29 +2,41 @@ package cn.hc.remoting.transport.netty.codec;
 
 
 import cn.hc.compress.Compress;
+import cn.hc.compress.CompressPolicy;
+import cn.hc.config.RpcConfig;
 import cn.hc.enums.CompressTypeEnum;
-import cn.hc.enums.SerializationTypeEnum;
-import cn.hc.extension.ExtensionLoader;
+import cn.hc.enums.RpcConfigEnum;
+import cn.hc.factory.SingletonFactory;
 import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcArguments;
+import cn.hc.remoting.dto.RpcAttachments;
+import cn.hc.remoting.dto.RpcHandshake;
 import cn.hc.remoting.dto.RpcMessage;
+import cn.hc.remoting.dto.RpcRequest;
 import cn.hc.serialize.Serializer;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * <p>
  * custom protocol decoder
  * <p>
  * <pre>
- *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
- *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
- *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |
- *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+
+ *   0     1     2     3     4        5     6     7     8         9          10      11     12    13    14    15   16
+ *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+--------+-----+-----+-----+-----+
+ *   |   magic   code        |version | full length         | messageType| codec|compress|       RequestId       |
+ *   +-----------------------+--------+---------------------+-----------+-----------+-----------+---------------+
  *   |                                                                                                       |
  *   |                                         body                                                          |
  *   |                                                                                                       |
@@ -34,68 +46,372 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
  * body（object类型数据）
  * </pre>
+ * v2 头部中的 requestId 为 8 字节，之后依次为 1B flags（标志位）、2B 附加信息长度、附加信息（若干个 1B key + 2B 长度 + 值）。
+ * 每个连接使用握手协商出的版本，协商完成前使用 v1；消息指定了版本时（服务端按请求帧的版本响应）使用消息的版本。
+ * v1 帧与最初的协议保持一致：头部不携带标志位和附加信息，消息体不分片，压缩方式不为 none 时总是压缩
+ * <p>
+ * 消息体超过分片大小时拆分为多个分片帧发送，分片帧的消息类型为 CHUNK_TYPE，头部之后依次是
+ * 1B 原始消息类型、1B 是否为最后一个分片，以及该分片的数据。各分片共享同一请求 id，
+ * 每个分片使用单独的 ByteBuf，大消息不需要一整块连续的内存
  *
  * @author HCong
  * @create 2022/8/5
  */
 @Slf4j
 @ChannelHandler.Sharable
-public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
-    private static final AtomicInteger ATOMIC_INTEGER = new AtomicInteger(0);
+public class RpcMessageEncoder extends MessageToMessageEncoder<RpcMessage> {
+    /**
+     * 连接上协商得到的协议版本，未协商时使用 v1
+     */
+    public static final AttributeKey<Byte> PROTOCOL_VERSION = AttributeKey.valueOf("protocolVersion");
+    /**
+     * 头部（含附加信息和分片信息）可能占用的最大空间
+     */
+    private static final int MAX_HEADER_ROOM = RpcConstants.HEAD_LENGTH_V2 + RpcConstants.MAX_ATTACHMENTS_LENGTH + RpcConstants.CHUNK_HEAD_LENGTH;
+    /**
+     * 分片大小的下限，过小的分片只会产生大量的帧
+     */
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;
+    /**
+     * 消息体的初始预估大小
+     */
+    private static final int INITIAL_BODY_SIZE_ESTIMATE = 256;
+    /**
+     * 预估值的衰减因子：实际大小小于预估值时，预估值每次向实际大小靠近 1/8
+     */
+    private static final int BODY_SIZE_ESTIMATE_DECAY_SHIFT = 3;
+
+    /**
+     * 根据最近编码过的消息体大小得到的预估值，用于预先分配合适大小的 ByteBuf，避免写入过程中扩容拷贝
+     */
+    private volatile int bodySizeEstimate = INITIAL_BODY_SIZE_ESTIMATE;
+
+    private final CompressPolicy compressPolicy = SingletonFactory.getInstance(CompressPolicy.class);
+    private final CodecRegistry codecRegistry = SingletonFactory.getInstance(CodecRegistry.class);
+    /**
+     * 分片大小，不小于 MIN_CHUNK_SIZE，不超过单帧的最大长度
+     */
+    private final int chunkSize = chunkSize();
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
+    protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, List<Object> out) {
+        byte messageType = rpcMessage.getMessageType();
+        byte version = protocolVersion(ctx, rpcMessage);
+        boolean v1 = version == RpcConstants.VERSION_1;
+        RpcAttachments attachments = v1 ? null : rpcMessage.getAttachments();
+        int headLength = headLength(version, attachments);
+        // v1 不支持分片，消息体最多占满一帧
+        int chunkSize = v1 ? RpcConstants.MAX_FRAME_LENGTH - headLength : this.chunkSize;
+        // 心跳消息只有头部（握手时携带 RpcHandshake 的心跳除外）
+        boolean hasBody = !isHeartbeat(messageType) || rpcMessage.getData() instanceof RpcHandshake;
+        // 每个 ByteBuf 在数据之前预留的空间，足够写入普通帧头部或分片帧头部
+        int headerRoom = headLength + RpcConstants.CHUNK_HEAD_LENGTH;
+        // 按最近消息体大小的预估值分配
+        int initialCapacity = headerRoom + (hasBody ? Math.min(bodySizeEstimate, chunkSize) : 0);
+        BodyOutputStream body = new BodyOutputStream(ctx.alloc(), headerRoom, initialCapacity, chunkSize);
         try {
-            // 4 字节魔数
-            out.writeBytes(RpcConstants.MAGIC_NUMBER);
-            // 1 字节版本
-            out.writeByte(RpcConstants.VERSION);
-            // 4 字节的消息总长度，后续填充（目前先0填充）
-            out.writerIndex(out.writerIndex() + 4);
-            // 1 字节消息类型
-            byte messageType = rpcMessage.getMessageType();
-            out.writeByte(messageType);
-            // 1 字节序列化类型
-            out.writeByte(rpcMessage.getCodec());
-            // 1 字节压缩方式
-            out.writeByte(rpcMessage.getCompress());
-            // 4 字节消息 Id
-            out.writeInt(ATOMIC_INTEGER.getAndIncrement());
-
-            //========================= 上面构建了16字节的头部信息 ==============================
-            byte[] bodyBytes = null;
-            // 确定 消息头+消息体 的总长度
-            // 初始总长度
-            int fullLength = RpcConstants.HEAD_LENGTH;
-            // 当消息不是 心跳 消息时，对消息进行序列化、压缩等操作
-            if (messageType != RpcConstants.HEARTBEAT_REQUEST_TYPE && messageType != RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
-                // 获取序列化算法名称
-                String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-                log.info("codec name: [{}] ", codecName);
-                Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class).getExtension(codecName);
+            byte compressType = CompressTypeEnum.NONE.getCode();
+            byte flags = rpcMessage.getFlags();
+            // 对消息进行序列化、压缩等操作：序列化结果直接写入 ByteBuf，不再产生中间 byte[]
+            if (hasBody) {
+                // 获取序列化器
+                Serializer serializer = codecRegistry.getSerializer(rpcMessage.getCodec());
+
                 // 序列化
-                bodyBytes = serializer.serialize(rpcMessage.getData());
+                if (messageType == RpcConstants.COMPACT_REQUEST_TYPE) {
+                    // 紧凑请求只写出方法 Id 和参数
+                    RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
+                    body.first().writeInt(rpcMessage.getMethodId());
+                    serializer.serialize(new RpcArguments(rpcRequest.getParameters()), body);
+                } else {
+                    serializer.serialize(rpcMessage.getData(), body);
+                }
+                int rawLength = body.length();
 
-                // 压缩
-                String compressName = CompressTypeEnum.getName(rpcMessage.getCompress());
-                Compress compress = ExtensionLoader.getExtensionLoader(Compress.class).getExtension(compressName);
-                bodyBytes = compress.compress(bodyBytes);
+                // 压缩：按照压缩策略决定是否压缩，并将实际采用的压缩方式写入头部；
+                // v1 的对端总是按头部中的压缩方式解压，因此 v1 帧不经过压缩策略，总是压缩
+                if (v1 ? rpcMessage.getCompress() != CompressTypeEnum.NONE.getCode()
+                        : compressPolicy.shouldCompress(rpcMessage.getCompress(), rawLength)) {
+                    BodyOutputStream compressed = compressBody(ctx, body, rawLength, rpcMessage.getCompress(), v1);
+                    if (compressed != null) {
+                        body.release();
+                        body = compressed;
+                        compressType = rpcMessage.getCompress();
+                        flags |= RpcConstants.FLAG_COMPRESSED_BY_POLICY;
+                    }
+                }
 
-                fullLength += bodyBytes.length;
+                updateBodySizeEstimate(body.length());
+            }
 
+            Header header = new Header(version, headLength, rpcMessage.getCodec(), compressType, rpcMessage.getRequestId(), flags, attachments);
+            if (v1 && body.buffers.size() > 1) {
+                throw new IllegalArgumentException("message of " + body.length() + " bytes exceeds the max frame length of protocol v1");
             }
-            // 写入方法体
-            if (bodyBytes != null) {
-                out.writeBytes(bodyBytes);
+            if (body.buffers.size() == 1) {
+                ByteBuf frame = body.first();
+                frame.readerIndex(RpcConstants.CHUNK_HEAD_LENGTH);
+                writeHeader(frame, messageType, header);
+                out.add(frame);
+            } else {
+                header.flags |= RpcConstants.FLAG_STREAMING;
+                writeChunks(body.buffers, messageType, header, out);
             }
-            // 写入消息的总长度
-            int writerIndex = out.writerIndex();
-            out.writerIndex(writerIndex - fullLength + RpcConstants.MAGIC_NUMBER.length + 1);
-            // 注意，此处将总长度写入至之前的流出的空位之上
-            out.writeInt(fullLength);
-            out.writerIndex(writerIndex);
         } catch (Exception e) {
             log.error("Encode request error!", e);
+            // 丢弃已写入的不完整数据，避免发送残缺的帧
+            body.release();
+            throw new EncoderException(e);
+        }
+    }
+
+    /**
+     * 读取配置的分片大小，超出范围时调整到最近的合法值
+     *
+     * @return
+     */
+    private static int chunkSize() {
+        int configured = RpcConfig.getInt(RpcConfigEnum.CHUNK_SIZE, RpcConstants.DEFAULT_CHUNK_SIZE);
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(configured, RpcConstants.MAX_FRAME_LENGTH - MAX_HEADER_ROOM));
+        if (chunkSize != configured) {
+            log.warn("rpc.chunk.size [{}] is out of range, use [{}] instead", configured, chunkSize);
+        }
+        return chunkSize;
+    }
+
+    /**
+     * 获取消息使用的协议版本：消息指定的版本，或连接上协商得到的版本，都没有时使用 v1
+     *
+     * @param ctx
+     * @param rpcMessage
+     * @return
+     */
+    private byte protocolVersion(ChannelHandlerContext ctx, RpcMessage rpcMessage) {
+        if (rpcMessage.getVersion() != 0) {
+            return rpcMessage.getVersion();
+        }
+        Byte version = ctx.channel().attr(PROTOCOL_VERSION).get();
+        return version == null ? RpcConstants.VERSION_1 : version;
+    }
+
+    /**
+     * 计算头部长度
+     *
+     * @param version
+     * @param attachments
+     * @return
+     */
+    private int headLength(byte version, RpcAttachments attachments) {
+        if (version == RpcConstants.VERSION_1) {
+            return RpcConstants.HEAD_LENGTH;
+        }
+        int attachmentsLength = attachments == null ? 0 : attachments.encodedLength();
+        if (attachmentsLength > RpcConstants.MAX_ATTACHMENTS_LENGTH) {
+            throw new IllegalArgumentException("attachments are too long: " + attachmentsLength);
+        }
+        return RpcConstants.HEAD_LENGTH_V2 + attachmentsLength;
+    }
+
+    /**
+     * 在 frame 的 readerIndex 处写入头部，frame 的可读部分即为完整的帧
+     *
+     * @param frame
+     * @param messageType
+     * @param header
+     */
+    private void writeHeader(ByteBuf frame, byte messageType, Header header) {
+        int index = frame.readerIndex();
+        // 4 字节魔数
+        frame.setBytes(index, RpcConstants.MAGIC_NUMBER);
+        // 1 字节版本
+        frame.setByte(index + 4, header.version);
+        // 4 字节的消息总长度
+        frame.setInt(index + 5, frame.readableBytes());
+        // 1 字节消息类型
+        frame.setByte(index + 9, messageType);
+        // 1 字节序列化类型
+        frame.setByte(index + 10, header.codec);
+        // 1 字节压缩方式
+        frame.setByte(index + 11, header.compressType);
+        // 消息 Id，由发送方按连接分配，响应沿用请求的 Id：v1 为 4 字节，v2 为 8 字节
+        if (header.version == RpcConstants.VERSION_1) {
+            frame.setInt(index + 12, (int) header.requestId);
+        } else {
+            frame.setLong(index + 12, header.requestId);
+            // 1 字节标志位
+            frame.setByte(index + 20, header.flags);
+            // 2 字节附加信息长度 + 附加信息
+            frame.setShort(index + 21, header.length - RpcConstants.HEAD_LENGTH_V2);
+            if (header.attachments != null) {
+                header.attachments.encode(frame, index + RpcConstants.HEAD_LENGTH_V2);
+            }
+        }
+    }
+
+    /**
+     * 将分片写为分片帧
+     *
+     * @param chunks
+     * @param messageType
+     * @param header
+     * @param out
+     */
+    private void writeChunks(List<ByteBuf> chunks, byte messageType, Header header, List<Object> out) {
+        for (int i = 0; i < chunks.size(); i++) {
+            ByteBuf chunk = chunks.get(i);
+            chunk.readerIndex(0);
+            writeHeader(chunk, RpcConstants.CHUNK_TYPE, header);
+            chunk.setByte(header.length, messageType);
+            chunk.setByte(header.length + 1, i == chunks.size() - 1 ? 1 : 0);
+            out.add(chunk);
+        }
+    }
+
+    /**
+     * 压缩原始消息体，若压缩结果满足压缩策略则返回压缩后的消息体
+     *
+     * @param ctx
+     * @param body
+     * @param rawLength
+     * @param compressType
+     * @param force        是否不经过压缩策略，总是采用压缩结果
+     * @return 压缩后的消息体，不采用压缩结果时返回 null
+     * @throws IOException
+     */
+    private BodyOutputStream compressBody(ChannelHandlerContext ctx, BodyOutputStream body, int rawLength, byte compressType, boolean force) throws IOException {
+        Compress compress = codecRegistry.getCompress(compressType);
+
+        BodyOutputStream compressed = new BodyOutputStream(ctx.alloc(), body.headerRoom, body.headerRoom + Math.min(rawLength, body.chunkSize), body.chunkSize);
+        try {
+            OutputStream compressOutputStream = compress.compress(compressed);
+            for (ByteBuf buffer : body.buffers) {
+                buffer.getBytes(body.headerRoom, compressOutputStream, buffer.writerIndex() - body.headerRoom);
+            }
+            compressOutputStream.close();
+
+            if (force || compressPolicy.accept(rawLength, compressed.length())) {
+                return compressed;
+            }
+        } catch (IOException | RuntimeException e) {
+            compressed.release();
+            throw e;
+        }
+        compressed.release();
+        return null;
+    }
+
+    /**
+     * 更新消息体大小的预估值：大于预估值时立即增长，小于时缓慢衰减
+     *
+     * @param bodyLength
+     */
+    private void updateBodySizeEstimate(int bodyLength) {
+        int estimate = bodySizeEstimate;
+        if (bodyLength >= estimate) {
+            bodySizeEstimate = bodyLength;
+        } else {
+            bodySizeEstimate = Math.max(INITIAL_BODY_SIZE_ESTIMATE, estimate - ((estimate - bodyLength) >> BODY_SIZE_ESTIMATE_DECAY_SHIFT));
+        }
+    }
+
+    private boolean isHeartbeat(byte messageType) {
+        return messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE || messageType == RpcConstants.HEARTBEAT_RESPONSE_TYPE;
+    }
+
+    /**
+     * 一条消息的所有帧共用的头部信息
+     */
+    private static class Header {
+        private final byte version;
+        private final int length;
+        private final byte codec;
+        private final byte compressType;
+        private final long requestId;
+        private byte flags;
+        private final RpcAttachments attachments;
+
+        Header(byte version, int length, byte codec, byte compressType, long requestId, byte flags, RpcAttachments attachments) {
+            this.version = version;
+            this.length = length;
+            this.codec = codec;
+            this.compressType = compressType;
+            this.requestId = requestId;
+            this.flags = flags;
+            this.attachments = attachments;
+        }
+    }
+
+    /**
+     * 将消息体写入一串 ByteBuf：每个 ByteBuf 开头预留头部空间，写满一个分片后再申请下一个
+     */
+    private static class BodyOutputStream extends OutputStream {
+        private final ByteBufAllocator alloc;
+        private final int headerRoom;
+        private final int chunkSize;
+        private final List<ByteBuf> buffers = new ArrayList<>(1);
+        private ByteBuf current;
+
+        BodyOutputStream(ByteBufAllocator alloc, int headerRoom, int initialCapacity, int chunkSize) {
+            this.alloc = alloc;
+            this.headerRoom = headerRoom;
+            this.chunkSize = chunkSize;
+            this.current = newBuffer(initialCapacity);
+        }
+
+        ByteBuf first() {
+            return buffers.get(0);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureWritable();
+            current.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                ensureWritable();
+                int n = Math.min(len, headerRoom + chunkSize - current.writerIndex());
+                current.writeBytes(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * 已写入的消息体长度
+         *
+         * @return
+         */
+        int length() {
+            int length = 0;
+            for (ByteBuf buffer : buffers) {
+                length += buffer.writerIndex() - headerRoom;
+            }
+            return length;
+        }
+
+        void release() {
+            for (ByteBuf buffer : buffers) {
+                if (buffer.refCnt() > 0) {
+                    buffer.release();
+                }
+            }
+            buffers.clear();
+        }
+
+        private void ensureWritable() {
+            if (current.writerIndex() == headerRoom + chunkSize) {
+                current = newBuffer(headerRoom + chunkSize);
+            }
+        }
+
+        private ByteBuf newBuffer(int initialCapacity) {
+            ByteBuf buffer = alloc.ioBuffer(initialCapacity);
+            buffer.writerIndex(headerRoom);
+            buffers.add(buffer);
+            return buffer;
         }
     }
 }
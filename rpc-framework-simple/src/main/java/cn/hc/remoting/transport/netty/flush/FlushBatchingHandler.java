@@ -0,0 +1,152 @@
+package cn.hc.remoting.transport.netty.flush;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并刷新：上层每条消息都调用 writeAndFlush，这里只转发 write，把 flush 攒起来一次写出，减少系统调用
+ * <p>
+ * 攒起来的刷新在以下时机真正执行：
+ * <ul>
+ *     <li>正在读取时，推迟到 channelReadComplete（服务端在同一次读取中处理完的请求一起响应）</li>
+ *     <li>未攒够时，推迟到事件循环的下一轮（delayMicros 为 0），或等待 delayMicros 微秒</li>
+ *     <li>待刷新的帧数达到 maxMessages 时立即刷新</li>
+ *     <li>连接变为不可写、关闭或发生异常时立即刷新</li>
+ * </ul>
+ * 应放在 pipeline 的最前面（最靠近 socket），统计的是编码后的帧数。每个连接一个实例，所有方法都在连接的 EventLoop 中执行
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+public class FlushBatchingHandler extends ChannelDuplexHandler {
+    private final int maxMessages;
+    private final long delayMicros;
+    private final FlushStatistics statistics;
+    private final Runnable flushTask = this::runScheduledFlush;
+
+    private ChannelHandlerContext ctx;
+    /**
+     * 上次刷新后写入的帧数
+     */
+    private int pendingMessages;
+    /**
+     * 是否有被推迟的 flush
+     */
+    private boolean flushPending;
+    private boolean readInProgress;
+    private boolean flushScheduled;
+
+    /**
+     * @param maxMessages 待刷新的帧数达到该值时立即刷新
+     * @param delayMicros 没有读取进行时 flush 最多推迟的微秒数，为 0 时推迟到事件循环的下一轮
+     * @param statistics  刷新统计
+     */
+    public FlushBatchingHandler(int maxMessages, long delayMicros, FlushStatistics statistics) {
+        this.maxMessages = maxMessages;
+        this.delayMicros = delayMicros;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfPending();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        pendingMessages++;
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (pendingMessages >= maxMessages) {
+            flushNow();
+            return;
+        }
+        flushPending = true;
+        if (readInProgress) {
+            // 在 channelReadComplete 中刷新
+            return;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            if (delayMicros > 0) {
+                ctx.executor().schedule(flushTask, delayMicros, TimeUnit.MICROSECONDS);
+            } else {
+                ctx.executor().execute(flushTask);
+            }
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        flushIfPending();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // 写缓冲区已满时先把攒着的数据写出去，否则可能一直等不到可写
+        if (!ctx.channel().isWritable()) {
+            flushIfPending();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        flushIfPending();
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfPending();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfPending();
+        ctx.close(promise);
+    }
+
+    private void runScheduledFlush() {
+        flushScheduled = false;
+        // 读取进行中时由 channelReadComplete 负责刷新
+        if (!readInProgress) {
+            flushIfPending();
+        }
+    }
+
+    private void flushIfPending() {
+        if (flushPending) {
+            flushNow();
+        }
+    }
+
+    private void flushNow() {
+        if (pendingMessages > 0) {
+            statistics.record(pendingMessages);
+        }
+        pendingMessages = 0;
+        flushPending = false;
+        ctx.flush();
+    }
+}
@@ -0,0 +1,55 @@
+package cn.hc.remoting.transport.netty.flush;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 刷新统计：实际刷新次数、刷新的帧数以及单次刷新的最大帧数，同一端的所有连接共享
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+public class FlushStatistics {
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAccumulator maxBatchSize = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一次实际的刷新
+     *
+     * @param batchSize 本次刷新写出的帧数
+     */
+    void record(int batchSize) {
+        flushCount.increment();
+        messageCount.add(batchSize);
+        maxBatchSize.accumulate(batchSize);
+    }
+
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    public long getMessageCount() {
+        return messageCount.sum();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * 平均每次刷新写出的帧数
+     *
+     * @return
+     */
+    public double getAverageBatchSize() {
+        long flushes = getFlushCount();
+        return flushes == 0 ? 0 : (double) getMessageCount() / flushes;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushStatistics(flushCount=" + getFlushCount() + ", messageCount=" + getMessageCount()
+                + ", averageBatchSize=" + String.format("%.2f", getAverageBatchSize()) + ", maxBatchSize=" + getMaxBatchSize() + ")";
+    }
+}
@@ -1,19 +1,23 @@
 package cn.hc.remoting.transport.netty.server;
 
 import cn.hc.config.CustomShutdownHook;
+import cn.hc.config.RpcConfig;
 import cn.hc.config.RpcServiceConfig;
+import cn.hc.enums.RpcConfigEnum;
 import cn.hc.factory.SingletonFactory;
 import cn.hc.provider.ServiceProvider;
 import cn.hc.provider.impl.ZkServiceProviderImpl;
+import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.transport.netty.NettyTransportUtil;
 import cn.hc.remoting.transport.netty.codec.RpcMessageDecoder;
 import cn.hc.remoting.transport.netty.codec.RpcMessageEncoder;
+import cn.hc.remoting.transport.netty.flush.FlushBatchingHandler;
+import cn.hc.remoting.transport.netty.flush.FlushStatistics;
 import cn.hc.utils.RuntimeUtil;
 import cn.hc.utils.concurrent.threadpool.ThreadPoolFactoryUtil;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -36,6 +40,11 @@ public class NettyRpcServer {
 
     private final ServiceProvider serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
 
+    /**
+     * 所有连接共享的刷新统计
+     */
+    private final FlushStatistics flushStatistics = new FlushStatistics();
+
     /**
      * 注册服务至 缓存 和 Zookeeper
      *
@@ -51,8 +60,15 @@ public class NettyRpcServer {
         CustomShutdownHook.getCustomShutdownHook().clearAll();
 
         String host = InetAddress.getLocalHost().getHostAddress();
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        int flushMaxMessages = RpcConfig.getInt(RpcConfigEnum.FLUSH_MAX_MESSAGES, RpcConstants.DEFAULT_FLUSH_MAX_MESSAGES);
+        int flushDelayMicros = RpcConfig.getInt(RpcConfigEnum.FLUSH_DELAY_MICROS, 0);
+        WriteBufferWaterMark writeBufferWaterMark = new WriteBufferWaterMark(
+                RpcConfig.getInt(RpcConfigEnum.WRITE_BUFFER_LOW_WATER_MARK, RpcConstants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK),
+                RpcConfig.getInt(RpcConfigEnum.WRITE_BUFFER_HIGH_WATER_MARK, RpcConstants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK));
+        // 多个 acceptor 依赖 SO_REUSEPORT，只在 epoll 下生效，每个 acceptor 占用 bossGroup 中的一个线程
+        int acceptors = NettyTransportUtil.isEpoll() ? Math.max(1, RpcConfig.getInt(RpcConfigEnum.SERVER_ACCEPTORS, 1)) : 1;
+        EventLoopGroup bossGroup = NettyTransportUtil.newEventLoopGroup(acceptors);
+        EventLoopGroup workerGroup = NettyTransportUtil.newEventLoopGroup(0);
 
         // ?
         DefaultEventExecutorGroup serviceHandlerGroup = new DefaultEventExecutorGroup(
@@ -60,24 +76,37 @@ public class NettyRpcServer {
                 ThreadPoolFactoryUtil.createThreadFactory("service-handler-group", false)
         );
         try {
-            ChannelFuture channelFuture = new ServerBootstrap().group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+            ServerBootstrap serverBootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
+                    .channel(NettyTransportUtil.serverSocketChannelClass())
                     .option(ChannelOption.SO_BACKLOG, 128)           // 表示系统用于临时存放已完成三次握手的请求的队列的最大长度,如果连接建立频繁，服务器处理创建新连接较慢，可以适当调大这个参数
                     .childOption(ChannelOption.TCP_NODELAY, true)    // TCP默认开启了 Nagle 算法，该算法的作用是尽可能的发送大数据快，减少网络传输。TCP_NODELAY 参数的作用就是控制是否启用 Nagle 算法。
                     .childOption(ChannelOption.SO_KEEPALIVE, true)   // 是否开启 TCP 底层心跳机制
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark)   // 写缓冲区超过高水位后连接不可写，停止读取新的请求
                     .handler(new LoggingHandler(LogLevel.DEBUG))
-                    .childHandler(new ChannelInitializer<NioSocketChannel>() {
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
-                        protected void initChannel(NioSocketChannel ch) throws Exception {
+                        protected void initChannel(SocketChannel ch) throws Exception {
+                            if (flushMaxMessages > 1) {
+                                ch.pipeline().addLast(new FlushBatchingHandler(flushMaxMessages, flushDelayMicros, flushStatistics));   // 合并刷新，同一次读取中处理完的请求一起响应
+                            }
                             ch.pipeline().addLast(new IdleStateHandler(30, 0, 0, TimeUnit.SECONDS));   // 30 秒之内没有收到客户端请求的话就关闭连接
                             ch.pipeline().addLast(new RpcMessageEncoder());
                             ch.pipeline().addLast(new RpcMessageDecoder());
                             ch.pipeline().addLast(serviceHandlerGroup, new NettyRpcServerHandler());
                         }
-                    })
-                    .bind(host, PORT).sync();
+                    });
+            NettyTransportUtil.applyServerOptions(serverBootstrap, acceptors > 1);   // epoll 专有选项
 
-            channelFuture.channel().closeFuture().sync();
+            // 每次绑定创建一个监听 Channel，注册到 bossGroup 的下一个线程上
+            ChannelFuture[] channelFutures = new ChannelFuture[acceptors];
+            for (int i = 0; i < acceptors; i++) {
+                channelFutures[i] = serverBootstrap.bind(host, PORT).sync();
+            }
+            log.info("server bound [{}:{}] with [{}] acceptor(s), epoll [{}]", host, PORT, acceptors, NettyTransportUtil.isEpoll());
+
+            for (ChannelFuture channelFuture : channelFutures) {
+                channelFuture.channel().closeFuture().sync();
+            }
         } catch (InterruptedException e) {
             log.error("occur exception when start server:", e);
         } finally {
@@ -87,4 +116,8 @@ public class NettyRpcServer {
             serviceHandlerGroup.shutdownGracefully();
         }
     }
+
+    public FlushStatistics getFlushStatistics() {
+        return flushStatistics;
+    }
 }
@@ -1,14 +1,22 @@
 package cn.hc.remoting.transport.netty.server;
 
-import cn.hc.enums.CompressTypeEnum;
+import cn.hc.compress.CompressPolicy;
 import cn.hc.enums.RpcResponseCodeEnum;
-import cn.hc.enums.SerializationTypeEnum;
+import cn.hc.exception.RpcException;
 import cn.hc.factory.SingletonFactory;
+import cn.hc.provider.ServiceProvider;
+import cn.hc.provider.impl.ZkServiceProviderImpl;
+import cn.hc.remoting.RpcContext;
 import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcAttachments;
+import cn.hc.remoting.dto.RpcBatchRequest;
+import cn.hc.remoting.dto.RpcBatchResponse;
+import cn.hc.remoting.dto.RpcHandshake;
 import cn.hc.remoting.dto.RpcMessage;
 import cn.hc.remoting.dto.RpcRequest;
 import cn.hc.remoting.dto.RpcResponse;
 import cn.hc.remoting.handler.RpcRequestHandler;
+import cn.hc.remoting.handler.ServiceMethodTable;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -16,10 +24,20 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutorGroup;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
 /**
  * 定制服务器的 ChannelHandler 来处理客户机发送的数据。
+ * <p>
+ * 连接的写缓冲区超过高水位（不可写）时停止读取新的请求，恢复可写后再继续读取，响应不会因为暂时不可写而被丢弃
  *
  * @author HCong
  * @create 2022/8/6
@@ -27,9 +45,182 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
     private final RpcRequestHandler rpcRequestHandler;
+    private final CompressPolicy compressPolicy;
+    private final ServiceProvider serviceProvider;
+    private final ServiceMethodTable serviceMethodTable;
 
     public NettyRpcServerHandler() {
         this.rpcRequestHandler = SingletonFactory.getInstance(RpcRequestHandler.class);
+        this.compressPolicy = SingletonFactory.getInstance(CompressPolicy.class);
+        this.serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
+        this.serviceMethodTable = SingletonFactory.getInstance(ServiceMethodTable.class);
+    }
+
+    /**
+     * 写回调用结果
+     *
+     * @param ctx
+     * @param rpcMessage
+     * @param rpcRequest
+     * @param result
+     * @param cause      调用失败的原因，成功时为 null
+     */
+    private void writeResponse(ChannelHandlerContext ctx, RpcMessage rpcMessage, RpcRequest rpcRequest, Object result, Throwable cause) {
+        rpcMessage.setData(toResponse(rpcRequest, result, cause));
+        if (cause != null) {
+            rpcMessage.setFlags(RpcConstants.FLAG_ERROR);
+        }
+        write(ctx, rpcMessage);
+    }
+
+    /**
+     * 构建单个调用的响应，单个请求和批量请求中的每个请求都使用该方法
+     *
+     * @param rpcRequest
+     * @param result
+     * @param cause      调用失败的原因，成功时为 null
+     * @return
+     */
+    private RpcResponse<Object> toResponse(RpcRequest rpcRequest, Object result, Throwable cause) {
+        RpcResponse<Object> rpcResponse;
+        if (cause == null) {
+            rpcResponse = RpcResponse.success(result);
+        } else {
+            rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+            log.error("invocation failed", cause);
+        }
+        // 回显消息体中的请求 id，v1 的客户端据此匹配请求
+        rpcResponse.setRequestId(rpcRequest.getRequestID());
+        return rpcResponse;
+    }
+
+    /**
+     * 响应的压缩方式：v1 的客户端不一定支持本端的压缩方式，使用请求的压缩方式；v2 使用服务配置的压缩方式
+     *
+     * @param msg
+     * @param rpcRequest
+     * @return
+     */
+    private byte responseCompress(RpcMessage msg, RpcRequest rpcRequest) {
+        if (msg.getVersion() == RpcConstants.VERSION_1) {
+            return msg.getCompress();
+        }
+        String compressName = serviceProvider.getServiceConfig(rpcRequest.getRpcServiceName()).getCompress();
+        return compressPolicy.resolve(compressName);
+    }
+
+    /**
+     * 写出响应，连接已经关闭时丢弃
+     *
+     * @param ctx
+     * @param rpcMessage
+     */
+    private void write(ChannelHandlerContext ctx, RpcMessage rpcMessage) {
+        if (!ctx.channel().isActive()) {
+            log.error("channel [{}] closed, response of [{}] dropped", ctx.channel(), rpcMessage.getRequestId());
+            return;
+        }
+        ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /**
+     * 写缓冲区超过高水位时停止读取，处理完已读到的请求后不再接收新的请求，直到响应写出、恢复可写
+     *
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().config().setAutoRead(ctx.channel().isWritable());
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * 处理批量请求：每个请求分派到服务处理线程组中并行执行，全部完成后以一个批量响应返回。
+     * 每个响应与单个请求的响应以相同的方式构建；批量响应只压缩一次，使用第一个请求的服务配置的压缩方式
+     *
+     * @param ctx
+     * @param msg
+     * @param rpcMessage
+     */
+    private void handleBatch(ChannelHandlerContext ctx, RpcMessage msg, RpcMessage rpcMessage) {
+        RpcBatchRequest batchRequest = (RpcBatchRequest) msg.getData();
+        long deadline = msg.getDeadline();
+        if (deadline > 0 && System.currentTimeMillis() > deadline) {
+            log.warn("skip expired batch request of [{}] calls", batchRequest.getRequests().size());
+            return;
+        }
+        List<Object> requests = batchRequest.getRequests();
+        int size = requests.size();
+        boolean oneway = (msg.getFlags() & RpcConstants.FLAG_ONEWAY) != 0;
+        List<RpcResponse<Object>> responses = new ArrayList<>(Collections.nCopies(size, null));
+        AtomicInteger remaining = new AtomicInteger(size);
+        rpcMessage.setMessageType(RpcConstants.BATCH_RESPONSE_TYPE);
+        rpcMessage.setData(RpcBatchResponse.builder().requestIds(batchRequest.getRequestIds()).responses(responses).build());
+        if (size > 0) {
+            try {
+                rpcMessage.setCompress(responseCompress(msg, (RpcRequest) requests.get(0)));
+            } catch (RpcException e) {
+                // 找不到服务时该请求以失败响应返回，批量响应使用默认的压缩方式
+                log.warn("use default compress type for batch response: [{}]", e.getMessage());
+            }
+        }
+
+        // 与单个请求一样在服务处理线程组中执行
+        EventExecutorGroup executorGroup = ctx.executor().parent() != null ? ctx.executor().parent() : ctx.executor();
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            RpcRequest rpcRequest = (RpcRequest) requests.get(i);
+            executorGroup.next().execute(() -> invoke(rpcRequest, (value, throwable) -> {
+                if (oneway) {
+                    if (throwable != null) {
+                        log.error("oneway invocation failed", throwable);
+                    }
+                    return;
+                }
+                responses.set(index, toResponse(rpcRequest, value, throwable));
+                if (remaining.decrementAndGet() == 0) {
+                    write(ctx, rpcMessage);
+                }
+            }));
+        }
+    }
+
+    /**
+     * 调用服务，服务返回 CompletionStage 时在其完成后回调
+     *
+     * @param rpcRequest
+     * @param callback
+     */
+    private void invoke(RpcRequest rpcRequest, BiConsumer<Object, Throwable> callback) {
+        Object result;
+        try {
+            result = rpcRequestHandler.handle(rpcRequest);
+        } catch (Exception e) {
+            callback.accept(null, e);
+            return;
+        }
+        if (result instanceof CompletionStage) {
+            ((CompletionStage<?>) result).whenComplete(callback);
+        } else {
+            callback.accept(result, null);
+        }
+    }
+
+    /**
+     * 按客户端发送的方法签名顺序返回方法 Id，并协商协议版本：取双方支持的最高版本中较小的一个
+     *
+     * @param request
+     * @return
+     */
+    private RpcHandshake handshake(RpcHandshake request) {
+        List<String> signatures = request.getSignatures();
+        int[] methodIds = new int[signatures == null ? 0 : signatures.size()];
+        for (int i = 0; i < methodIds.length; i++) {
+            methodIds[i] = serviceMethodTable.getMethodId(signatures.get(i));
+        }
+        byte version = (byte) Math.max(RpcConstants.VERSION_1, Math.min(request.getVersion(), RpcConstants.VERSION));
+        return RpcHandshake.builder().methodIds(methodIds).version(version).build();
     }
 
     /**
@@ -44,35 +235,81 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
         try {
             if (msg instanceof RpcMessage) {
                 log.info("server receive msg: [{}] ", msg);
+                // 处理前检查可写性：响应已经写不出去时先停止读取，避免继续积压
+                if (!ctx.channel().isWritable() && ctx.channel().config().isAutoRead()) {
+                    ctx.channel().config().setAutoRead(false);
+                }
                 // 获取消息类型
                 byte messageType = ((RpcMessage) msg).getMessageType();
 
                 // 构建响应 Rpc 消息
                 RpcMessage rpcMessage = new RpcMessage();
-                rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                // 响应沿用请求的 id，客户端据此找到对应的请求
+                rpcMessage.setRequestId(((RpcMessage) msg).getRequestId());
+                // 使用请求的序列化方式和协议版本返回响应，保证客户端能够解码
+                rpcMessage.setCodec(((RpcMessage) msg).getCodec());
+                rpcMessage.setVersion(((RpcMessage) msg).getVersion());
+                // v1 的客户端不一定支持本端的压缩方式，使用请求的压缩方式
+                boolean v1 = ((RpcMessage) msg).getVersion() == RpcConstants.VERSION_1;
+                rpcMessage.setCompress(v1 ? ((RpcMessage) msg).getCompress() : compressPolicy.getCompressType());
 
+                // 握手消息：为客户端引用的方法签名分配方法 Id，客户端以携带握手信息的心跳发起握手
+                if (((RpcMessage) msg).getData() instanceof RpcHandshake) {
+                    rpcMessage.setMessageType(RpcConstants.HANDSHAKE_RESPONSE_TYPE);
+                    rpcMessage.setData(handshake((RpcHandshake) ((RpcMessage) msg).getData()));
+                }
                 // 如果是心跳的 Ping 信息，封装 Pong 消息返回
-                if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
+                else if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
                     rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
                     rpcMessage.setData(RpcConstants.PONG);
                 }
+                // 批量请求：并行处理其中的每个请求，全部完成后一起响应
+                else if (messageType == RpcConstants.BATCH_REQUEST_TYPE) {
+                    handleBatch(ctx, (RpcMessage) msg, rpcMessage);
+                    return;
+                }
                 // 否则，基于 RpcRequestHandler 处理后，返回其结果
                 else {
                     RpcRequest rpcRequest = (RpcRequest) ((RpcMessage) msg).getData();
-                    // 处理消息
-                    Object result = rpcRequestHandler.handle(rpcRequest);
-                    log.info(String.format("server get result: %s", result.toString()));
+                    // 调用方已经超时放弃的请求不再处理
+                    long deadline = ((RpcMessage) msg).getDeadline();
+                    if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                        log.warn("skip expired request [{}] of [{}]", ((RpcMessage) msg).getRequestId(), rpcRequest.getRpcServiceName());
+                        return;
+                    }
+                    // 单向调用：只执行，不构建也不写回响应
+                    boolean oneway = (((RpcMessage) msg).getFlags() & RpcConstants.FLAG_ONEWAY) != 0;
                     rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+                    Object result;
+                    try {
+                        rpcMessage.setCompress(responseCompress((RpcMessage) msg, rpcRequest));
+                        // 处理消息，处理期间 RpcContext 中带有调用方的链路追踪 id 和租户
+                        setContext(((RpcMessage) msg).getAttachments());
+                        result = rpcRequestHandler.handle(rpcRequest);
+                        log.info("server get result: [{}]", result);
+                    } catch (Exception e) {
+                        if (oneway) {
+                            log.error("oneway invocation failed", e);
+                            return;
+                        }
+                        // 调用失败时返回失败响应，而不是关闭连接
+                        writeResponse(ctx, rpcMessage, rpcRequest, null, e);
+                        return;
+                    } finally {
+                        RpcContext.removeContext();
+                    }
 
-                    if (ctx.channel().isActive() && ctx.channel().isWritable()) {
-                        RpcResponse<Object> rpcResponse = RpcResponse.success(result, rpcRequest.getRequestID());
-                        rpcMessage.setData(rpcResponse);
+                    if (oneway) {
+                        return;
+                    }
+
+                    // 异步服务返回 CompletionStage：完成后再写回其结果，不占用处理线程等待
+                    if (result instanceof CompletionStage) {
+                        ((CompletionStage<?>) result).whenComplete((value, throwable) -> writeResponse(ctx, rpcMessage, rpcRequest, value, throwable));
                     } else {
-                        RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
-                        rpcMessage.setData(rpcResponse);
-                        log.error("not writable now, message dropped");
+                        writeResponse(ctx, rpcMessage, rpcRequest, result, null);
                     }
+                    return;
                 }
 
                 // 返回消息 ?
@@ -84,6 +321,20 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 将请求附加信息中的链路追踪 id 和租户放入当前线程的 RpcContext
+     *
+     * @param attachments
+     */
+    private void setContext(RpcAttachments attachments) {
+        if (attachments == null) {
+            return;
+        }
+        RpcContext rpcContext = RpcContext.getContext();
+        rpcContext.setTraceId(attachments.getString(RpcAttachments.TRACE_ID));
+        rpcContext.setTenant(attachments.getString(RpcAttachments.TENANT));
+    }
+
     /**
      * 处理 30 秒内未发生读事件的 Channel 的存活状态
      *
@@ -1,7 +1,12 @@
 package cn.hc.serialize;
 
+import cn.hc.exception.SerializeException;
 import cn.hc.extension.SPI;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * 序列化接口，所有序列化类都要实现这个接口
  *
@@ -18,6 +23,22 @@ public interface Serializer {
      */
     byte[] serialize(Object object);
 
+    /**
+     * 流式序列化：直接将对象写入输出流（例如包装了 Netty ByteBuf 的 ByteBufOutputStream），避免中间 byte[] 的拷贝
+     * <p>
+     * 默认实现退化为先序列化为 byte[] 再写出，支持流式写入的序列化器应覆盖此方法
+     *
+     * @param object
+     * @param out
+     */
+    default void serialize(Object object, OutputStream out) {
+        try {
+            out.write(serialize(object));
+        } catch (IOException e) {
+            throw new SerializeException("Serialization failed");
+        }
+    }
+
     /**
      * 反序列化
      *
@@ -27,4 +48,30 @@ public interface Serializer {
      * @return
      */
     <T> T deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 流式反序列化：直接从输入流（例如包装了 Netty ByteBuf 的 ByteBufInputStream）中读取对象，避免中间 byte[] 的拷贝
+     * <p>
+     * 默认实现退化为先读取全部字节再反序列化，支持流式读取的序列化器应覆盖此方法
+     *
+     * @param in
+     * @param clazz
+     * @param <T>
+     * @return
+     */
+    default <T> T deserialize(InputStream in, Class<T> clazz) {
+        try {
+            return deserialize(in.readAllBytes(), clazz);
+        } catch (IOException e) {
+            throw new SerializeException("Deserialization failed");
+        }
+    }
+
+    /**
+     * 启动时注册服务接口，序列化器可借此预先处理接口中方法的参数和返回值类型（例如 Kryo 的类注册）
+     *
+     * @param serviceInterface
+     */
+    default void registerService(Class<?> serviceInterface) {
+    }
 }
@@ -0,0 +1,78 @@
+package cn.hc.serialize.hessian;
+
+import cn.hc.exception.SerializeException;
+import cn.hc.serialize.Serializer;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 基于 Hessian2 协议的序列化，相比 Hessian1 编码更紧凑
+ * <p>
+ * 所有的 Hessian2Output/Hessian2Input 共享同一个 SerializerFactory，每个类的序列化器只需反射解析一次；
+ * Hessian2Output/Hessian2Input 按线程复用，每次使用前通过 init 重置引用表和缓冲区
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+public class Hessian2Serializer implements Serializer {
+    private static final SerializerFactory SERIALIZER_FACTORY = new SerializerFactory();
+
+    private final ThreadLocal<Hessian2Output> outputs = ThreadLocal.withInitial(() -> {
+        Hessian2Output output = new Hessian2Output();
+        output.setSerializerFactory(SERIALIZER_FACTORY);
+        return output;
+    });
+    private final ThreadLocal<Hessian2Input> inputs = ThreadLocal.withInitial(() -> {
+        Hessian2Input input = new Hessian2Input();
+        input.setSerializerFactory(SERIALIZER_FACTORY);
+        return input;
+    });
+
+    @Override
+    public byte[] serialize(Object object) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        serialize(object, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public void serialize(Object object, OutputStream out) {
+        Hessian2Output output = outputs.get();
+        try {
+            output.init(out);
+            output.writeObject(object);
+            output.flushBuffer();
+        } catch (IOException e) {
+            throw new SerializeException("Serialization failed");
+        } finally {
+            output.init(null);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return deserialize(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> clazz) {
+        Hessian2Input input = inputs.get();
+        try {
+            input.init(in);
+            Object o = input.readObject();
+
+            return clazz.cast(o);
+        } catch (IOException e) {
+            throw new SerializeException("Deserialization failed");
+        } finally {
+            input.init(null);
+        }
+    }
+}
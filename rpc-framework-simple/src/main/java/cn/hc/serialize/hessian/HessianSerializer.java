@@ -8,6 +8,8 @@ import com.caucho.hessian.io.HessianOutput;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * @author HCong
@@ -17,8 +19,7 @@ public class HessianSerializer implements Serializer {
     @Override
     public byte[] serialize(Object object) {
         try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-            HessianOutput hessianOutput = new HessianOutput(byteArrayOutputStream);
-            hessianOutput.writeObject(object);
+            serialize(object, byteArrayOutputStream);
 
             return byteArrayOutputStream.toByteArray();
         } catch (IOException e) {
@@ -26,10 +27,30 @@ public class HessianSerializer implements Serializer {
         }
     }
 
+    @Override
+    public void serialize(Object object, OutputStream out) {
+        try {
+            HessianOutput hessianOutput = new HessianOutput(out);
+            hessianOutput.writeObject(object);
+            hessianOutput.flush();
+        } catch (IOException e) {
+            throw new SerializeException("Serialization failed");
+        }
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
         try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes)) {
-            HessianInput hessianInput = new HessianInput(byteArrayInputStream);
+            return deserialize(byteArrayInputStream, clazz);
+        } catch (IOException e) {
+            throw new SerializeException("Deserialization failed");
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> clazz) {
+        try {
+            HessianInput hessianInput = new HessianInput(in);
             Object o = hessianInput.readObject();
 
             return clazz.cast(o);
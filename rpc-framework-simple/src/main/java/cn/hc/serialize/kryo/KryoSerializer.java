@@ -0,0 +1,196 @@
+package cn.hc.serialize.kryo;
+
+import cn.hc.exception.SerializeException;
+import cn.hc.remoting.dto.RpcArguments;
+import cn.hc.remoting.dto.RpcBatchRequest;
+import cn.hc.remoting.dto.RpcBatchResponse;
+import cn.hc.remoting.dto.RpcHandshake;
+import cn.hc.remoting.dto.RpcRequest;
+import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.serialize.Serializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Kryo 序列化
+ * <p>
+ * Kryo 不是线程安全的，这里使用 KryoPool 复用 Kryo 实例，并按线程复用 Input/Output 缓冲区。
+ * <p>
+ * 注册过的类在传输时只写入一个整数 id 而不是完整的类名，因此收发双方必须为同一个类注册相同的 id：
+ * RpcRequest、RpcResponse 等框架内部的类使用固定 id，服务接口的参数和返回值类型使用由类名哈希得到的 id，
+ * 在启动时通过 {@link #registerService(Class)} 自动注册
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+@Slf4j
+public class KryoSerializer implements Serializer {
+    private static final int BUFFER_SIZE = 4 * 1024;
+    /**
+     * 服务接口中的类型使用的 id 从这里开始，避开 Kryo 默认注册的类和框架内部的类
+     */
+    private static final int SERVICE_TYPE_ID_BASE = 1000;
+    private static final String APPLIED_REGISTRATIONS = "appliedRegistrations";
+
+    /**
+     * 服务接口中需要注册的类型，按注册顺序排列
+     */
+    private final List<Class<?>> serviceTypes = new CopyOnWriteArrayList<>();
+
+    private final KryoPool kryoPool = new KryoPool.Builder(this::createKryo).softReferences().build();
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(() -> new Output(BUFFER_SIZE, -1));
+    private final ThreadLocal<Input> inputs = ThreadLocal.withInitial(() -> new Input(BUFFER_SIZE));
+
+    private Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        // 优先使用无参构造器，没有无参构造器的类使用 objenesis 创建实例
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        kryo.register(RpcRequest.class, 100);
+        kryo.register(RpcResponse.class, 101);
+        kryo.register(Object[].class, 102);
+        kryo.register(Class.class, 103);
+        kryo.register(Class[].class, 104);
+        kryo.register(RpcHandshake.class, 105);
+        kryo.register(RpcArguments.class, 106);
+        kryo.register(int[].class, 107);
+        kryo.register(ArrayList.class, 108);
+        kryo.register(RpcBatchRequest.class, 109);
+        kryo.register(RpcBatchResponse.class, 110);
+        kryo.register(long[].class, 111);
+        setAppliedRegistrations(kryo, 0);
+        return kryo;
+    }
+
+    /**
+     * 注册服务接口中所有方法的参数类型和返回值类型
+     *
+     * @param serviceInterface
+     */
+    @Override
+    public void registerService(Class<?> serviceInterface) {
+        for (Method method : serviceInterface.getMethods()) {
+            for (Class<?> parameterType : method.getParameterTypes()) {
+                registerType(parameterType);
+            }
+            registerType(method.getReturnType());
+        }
+    }
+
+    private void registerType(Class<?> type) {
+        // 接口和抽象类在传输时写入的是实际的子类，注册它们没有意义
+        if (type.isPrimitive() || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+                || type.getName().startsWith("java.")) {
+            return;
+        }
+        synchronized (serviceTypes) {
+            if (!serviceTypes.contains(type)) {
+                serviceTypes.add(type);
+            }
+        }
+    }
+
+    private Kryo borrow() {
+        Kryo kryo = kryoPool.borrow();
+        int applied = appliedRegistrations(kryo);
+        // 只读取一次，其他线程此后追加的类型留到下次借出时注册
+        int registered = serviceTypes.size();
+        if (applied < registered) {
+            for (Class<?> type : serviceTypes.subList(applied, registered)) {
+                applyRegistration(kryo, type);
+            }
+            setAppliedRegistrations(kryo, registered);
+        }
+        return kryo;
+    }
+
+    /**
+     * Kryo 实例已经注册的服务类型数量，保存在 Kryo 的 context 中。context 是原始类型的 ObjectMap，读写都集中在这两个方法中
+     *
+     * @param kryo
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static int appliedRegistrations(Kryo kryo) {
+        return (Integer) kryo.getContext().get(APPLIED_REGISTRATIONS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setAppliedRegistrations(Kryo kryo, int applied) {
+        kryo.getContext().put(APPLIED_REGISTRATIONS, applied);
+    }
+
+    private void applyRegistration(Kryo kryo, Class<?> type) {
+        int id = SERVICE_TYPE_ID_BASE + (Hashing.murmur3_32().hashString(type.getName(), StandardCharsets.UTF_8).asInt() & 0x0FFFFFFF);
+        Registration existing = kryo.getRegistration(id);
+        if (existing != null) {
+            if (existing.getType() != type) {
+                log.error("kryo registration id [{}] of [{}] conflicts with [{}], [{}] will be written by class name",
+                        id, type.getName(), existing.getType().getName(), type.getName());
+            }
+            return;
+        }
+        kryo.register(type, id);
+    }
+
+    @Override
+    public byte[] serialize(Object object) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        serialize(object, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public void serialize(Object object, OutputStream out) {
+        Kryo kryo = borrow();
+        Output output = outputs.get();
+        try {
+            output.setOutputStream(out);
+            kryo.writeClassAndObject(output, object);
+            output.flush();
+        } catch (KryoException e) {
+            throw new SerializeException("Serialization failed");
+        } finally {
+            output.setOutputStream(null);
+            kryoPool.release(kryo);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return deserialize(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> clazz) {
+        Kryo kryo = borrow();
+        Input input = inputs.get();
+        try {
+            input.setInputStream(in);
+            Object o = kryo.readClassAndObject(input);
+            return clazz.cast(o);
+        } catch (KryoException e) {
+            throw new SerializeException("Deserialization failed");
+        } finally {
+            input.setInputStream(null);
+            kryoPool.release(kryo);
+        }
+    }
+}
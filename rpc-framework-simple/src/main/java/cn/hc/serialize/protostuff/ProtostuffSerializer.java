@@ -0,0 +1,79 @@
+package cn.hc.serialize.protostuff;
+
+import cn.hc.exception.SerializeException;
+import cn.hc.serialize.Serializer;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Protostuff 序列化
+ * <p>
+ * 每个类的 RuntimeSchema 只构建一次并缓存，LinkedBuffer 按线程复用；
+ * 序列化结果直接写入输出流（编码器中为包装了 ByteBuf 的 ByteBufOutputStream）
+ *
+ * @author HCong
+ * @create 2022/8/7
+ */
+public class ProtostuffSerializer implements Serializer {
+    private static final int BUFFER_SIZE = LinkedBuffer.DEFAULT_BUFFER_SIZE;
+
+    private final Map<Class<?>, Schema<?>> schemaCache = new ConcurrentHashMap<>();
+    private final ThreadLocal<LinkedBuffer> writeBuffers = ThreadLocal.withInitial(() -> LinkedBuffer.allocate(BUFFER_SIZE));
+    private final ThreadLocal<LinkedBuffer> readBuffers = ThreadLocal.withInitial(() -> LinkedBuffer.allocate(BUFFER_SIZE));
+
+    @SuppressWarnings("unchecked")
+    private <T> Schema<T> getSchema(Class<T> clazz) {
+        return (Schema<T>) schemaCache.computeIfAbsent(clazz, RuntimeSchema::getSchema);
+    }
+
+    @Override
+    public byte[] serialize(Object object) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        serialize(object, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void serialize(Object object, OutputStream out) {
+        Schema<Object> schema = (Schema<Object>) getSchema(object.getClass());
+        LinkedBuffer buffer = writeBuffers.get();
+        try {
+            ProtostuffIOUtil.writeTo(out, object, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Serialization failed");
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return deserialize(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public <T> T deserialize(InputStream in, Class<T> clazz) {
+        Schema<T> schema = getSchema(clazz);
+        T message = schema.newMessage();
+        LinkedBuffer buffer = readBuffers.get();
+        try {
+            ProtostuffIOUtil.mergeFrom(in, message, schema, buffer);
+            return message;
+        } catch (IOException e) {
+            throw new SerializeException("Deserialization failed");
+        } finally {
+            buffer.clear();
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package cn.hc.spring;
 
+import cn.hc.annotation.RpcMethod;
 import cn.hc.annotation.RpcReference;
 import cn.hc.annotation.RpcService;
+import cn.hc.config.RpcMethodConfig;
 import cn.hc.config.RpcServiceConfig;
 import cn.hc.extension.ExtensionLoader;
 import cn.hc.factory.SingletonFactory;
@@ -9,6 +11,7 @@ import cn.hc.provider.ServiceProvider;
 import cn.hc.provider.impl.ZkServiceProviderImpl;
 import cn.hc.proxy.RpcClientProxy;
 import cn.hc.remoting.transport.RpcRequestTransport;
+import cn.hc.remoting.transport.netty.codec.CodecRegistry;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
@@ -16,6 +19,8 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * 扫描和筛选指定的注释在创建bean之前调用该方法，以查看类是否被注释
@@ -28,10 +33,12 @@ import java.lang.reflect.Field;
 public class SpringBeanPostProcessor implements BeanPostProcessor {
     private final ServiceProvider serviceProvider;
     private final RpcRequestTransport rpcClient;
+    private final CodecRegistry codecRegistry;
 
     public SpringBeanPostProcessor() {
         this.serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
         this.rpcClient = ExtensionLoader.getExtensionLoader(RpcRequestTransport.class).getExtension("netty");
+        this.codecRegistry = SingletonFactory.getInstance(CodecRegistry.class);
     }
 
     /**
@@ -54,7 +61,10 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
             RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                     .group(rpcService.group())
                     .version(rpcService.version())
+                    .compress(rpcService.compress())
                     .service(bean).build();
+            // 预先注册服务接口中的类型，例如 Kryo 的类注册
+            codecRegistry.registerService(bean.getClass().getInterfaces()[0]);
             // 服务注册，发生在 Bean 初始化之前
             serviceProvider.publishService(rpcServiceConfig);
         }
@@ -83,7 +93,14 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
                 // 构建 RpcServiceConfig 对象，从注解中解析出 version 和 group
                 RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                         .group(rpcReference.group())
-                        .version(rpcReference.version()).build();
+                        .version(rpcReference.version())
+                        .compress(rpcReference.compress())
+                        .serializer(rpcReference.serializer())
+                        .timeout(rpcReference.timeout())
+                        .methods(methodConfigs(rpcReference.methods()))
+                        .cacheTtl(rpcReference.cacheTtl())
+                        .cacheSize(rpcReference.cacheSize()).build();
+                codecRegistry.registerService(declaredField.getType());
                 // 创建当前对象的代理对象
                 RpcClientProxy rpcClientProxy = new RpcClientProxy(rpcClient, rpcServiceConfig);
                 Object clientProxy = rpcClientProxy.getProxy(declaredField.getType());
@@ -99,4 +116,26 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
         }
         return bean;
     }
+
+    /**
+     * 将注解中的方法配置转换为 RpcMethodConfig
+     *
+     * @param rpcMethods
+     * @return
+     */
+    private Map<String, RpcMethodConfig> methodConfigs(RpcMethod[] rpcMethods) {
+        Map<String, RpcMethodConfig> methodConfigs = new HashMap<>(rpcMethods.length * 2);
+        for (RpcMethod rpcMethod : rpcMethods) {
+            methodConfigs.put(rpcMethod.name(), RpcMethodConfig.builder()
+                    .name(rpcMethod.name())
+                    .timeout(rpcMethod.timeout())
+                    .oneway(rpcMethod.oneway())
+                    .singleFlight(rpcMethod.singleFlight())
+                    .cacheTtl(rpcMethod.cacheTtl())
+                    .cacheSize(rpcMethod.cacheSize())
+                    .hedge(rpcMethod.hedge())
+                    .hedgeDelay(rpcMethod.hedgeDelay()).build());
+        }
+        return methodConfigs;
+    }
 }
@@ -0,0 +1,110 @@
+package cn.hc.proxy;
+
+import cn.hc.config.RpcServiceConfig;
+import cn.hc.enums.RpcErrorMessageEnum;
+import cn.hc.enums.RpcResponseCodeEnum;
+import cn.hc.exception.RpcException;
+import cn.hc.remoting.dto.RpcRequest;
+import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.remoting.transport.RpcRequestTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端代理单次调用的开销，传输层直接返回已完成的响应，只测量代理本身
+ * <p>
+ * reflectiveProxy 按原来的方式在每次调用时通过反射获取接口名并复制参数类型（不含每次调用的 info 日志）；
+ * jdkProxy 为 rpc.proxy=jdk 时的 JDK 动态代理，byteBuddyProxy 为默认生成的代理类，二者都使用预先解析好的 MethodDescriptor
+ * <p>
+ * 运行方式：mvn test-compile 后以 test classpath 执行本类的 main 方法
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcClientProxyBenchmark {
+
+    public interface EchoService {
+        CompletableFuture<String> echo(String message);
+    }
+
+    private static final CompletableFuture<RpcResponse<Object>> RESPONSE = CompletableFuture.completedFuture(RpcResponse.success("pong"));
+
+    private static final RpcRequestTransport TRANSPORT = rpcRequest -> RESPONSE;
+
+    private EchoService reflectiveProxy;
+
+    private EchoService jdkProxy;
+
+    private EchoService byteBuddyProxy;
+
+    @Setup
+    public void setup() {
+        RpcServiceConfig rpcServiceConfig = new RpcServiceConfig();
+        RpcClientProxy rpcClientProxy = new RpcClientProxy(TRANSPORT, rpcServiceConfig);
+        byteBuddyProxy = rpcClientProxy.getProxy(EchoService.class);
+        jdkProxy = newJdkProxy(rpcClientProxy);
+        reflectiveProxy = newJdkProxy((proxy, method, args) -> {
+            RpcRequest rpcRequest = RpcRequest.builder()
+                    .interfaceName(method.getDeclaringClass().getName())
+                    .methodName(method.getName())
+                    .parameters(args)
+                    .paramTypes(method.getParameterTypes())
+                    .version(rpcServiceConfig.getVersion())
+                    .group(rpcServiceConfig.getGroup())
+                    .build();
+            @SuppressWarnings("unchecked")
+            CompletableFuture<RpcResponse<Object>> future = (CompletableFuture<RpcResponse<Object>>) TRANSPORT.sendRpcRequest(rpcRequest);
+            return future.thenApply(response -> {
+                if (response.getCode() == null || !response.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode())) {
+                    throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, rpcRequest.getInterfaceName());
+                }
+                return response.getData();
+            });
+        });
+    }
+
+    @Benchmark
+    public Object reflectiveProxy() {
+        return reflectiveProxy.echo("ping");
+    }
+
+    @Benchmark
+    public Object jdkProxy() {
+        return jdkProxy.echo("ping");
+    }
+
+    @Benchmark
+    public Object byteBuddyProxy() {
+        return byteBuddyProxy.echo("ping");
+    }
+
+    private static EchoService newJdkProxy(InvocationHandler invocationHandler) {
+        return (EchoService) Proxy.newProxyInstance(EchoService.class.getClassLoader(), new Class<?>[]{EchoService.class}, invocationHandler);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RpcClientProxyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,147 @@
+package cn.hc.proxy;
+
+import cn.hc.config.RpcMethodConfig;
+import cn.hc.config.RpcServiceConfig;
+import cn.hc.remoting.dto.RpcRequest;
+import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.remoting.transport.RpcRequestTransport;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * singleFlight：使用不会立即返回的假传输层，统计相同调用实际发出的请求数
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@RunWith(JUnitPlatform.class)
+public class RpcClientProxyTest {
+
+    public interface QueryService {
+        CompletableFuture<String> query(String key);
+
+        CompletableFuture<String> plainQuery(String key);
+    }
+
+    /**
+     * 记录收到的请求，由测试决定何时返回响应
+     */
+    static class PendingTransport implements RpcRequestTransport {
+        private final List<RpcRequest> requests = Collections.synchronizedList(new ArrayList<>());
+        private final List<CompletableFuture<RpcResponse<Object>>> futures = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Object sendRpcRequest(RpcRequest rpcRequest) {
+            CompletableFuture<RpcResponse<Object>> future = new CompletableFuture<>();
+            requests.add(rpcRequest);
+            futures.add(future);
+            return future;
+        }
+
+        /**
+         * 按参数应答所有未完成的请求
+         */
+        void completeAll() {
+            synchronized (requests) {
+                for (int i = 0; i < requests.size(); i++) {
+                    futures.get(i).complete(RpcResponse.success("value of " + requests.get(i).getParameters()[0]));
+                }
+            }
+        }
+    }
+
+    @Test
+    void concurrentIdenticalCallsShareOneRequest() throws Exception {
+        PendingTransport transport = new PendingTransport();
+        QueryService queryService = proxy(transport);
+        int callers = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<CompletableFuture<String>>> calls = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                String key = i % 2 == 0 ? "a" : "b";
+                calls.add(executor.submit(() -> {
+                    start.await();
+                    return queryService.query(key);
+                }));
+            }
+            start.countDown();
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (Future<CompletableFuture<String>> call : calls) {
+                results.add(call.get(5, TimeUnit.SECONDS));
+            }
+
+            // 两种参数各发出一个请求
+            assertEquals(2, transport.requests.size());
+            for (CompletableFuture<String> result : results) {
+                assertFalse(result.isDone());
+            }
+
+            transport.completeAll();
+            for (int i = 0; i < callers; i++) {
+                assertEquals(i % 2 == 0 ? "value of a" : "value of b", results.get(i).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void completedCallIsNotShared() throws Exception {
+        PendingTransport transport = new PendingTransport();
+        QueryService queryService = proxy(transport);
+        CompletableFuture<String> first = queryService.query("a");
+        transport.completeAll();
+        assertEquals("value of a", first.get(5, TimeUnit.SECONDS));
+
+        // 上一次调用已完成，再次调用重新发出请求
+        CompletableFuture<String> second = queryService.query("a");
+        assertEquals(2, transport.requests.size());
+        transport.completeAll();
+        assertEquals("value of a", second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void methodWithoutSingleFlightSendsEveryCall() {
+        PendingTransport transport = new PendingTransport();
+        QueryService queryService = proxy(transport);
+        queryService.plainQuery("a");
+        queryService.plainQuery("a");
+        assertEquals(2, transport.requests.size());
+    }
+
+    @Test
+    void cancellingOneCallerDoesNotCancelTheSharedRequest() throws Exception {
+        PendingTransport transport = new PendingTransport();
+        QueryService queryService = proxy(transport);
+        CompletableFuture<String> cancelled = queryService.query("a");
+        CompletableFuture<String> waiting = queryService.query("a");
+        assertEquals(1, transport.requests.size());
+
+        assertTrue(cancelled.cancel(true));
+        transport.completeAll();
+        assertEquals("value of a", waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    private static QueryService proxy(RpcRequestTransport transport) {
+        RpcServiceConfig rpcServiceConfig = new RpcServiceConfig();
+        rpcServiceConfig.setMethods(Collections.singletonMap("query", RpcMethodConfig.builder().name("query").singleFlight(true).build()));
+        return new RpcClientProxy(transport, rpcServiceConfig).getProxy(QueryService.class);
+    }
+}
@@ -0,0 +1,177 @@
+package cn.hc.remoting.transport.netty.client;
+
+import cn.hc.config.RpcServiceConfig;
+import cn.hc.enums.CompressTypeEnum;
+import cn.hc.enums.SerializationTypeEnum;
+import cn.hc.factory.SingletonFactory;
+import cn.hc.provider.impl.ZkServiceProviderImpl;
+import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcBatchRequest;
+import cn.hc.remoting.dto.RpcBatchResponse;
+import cn.hc.remoting.dto.RpcMessage;
+import cn.hc.remoting.dto.RpcRequest;
+import cn.hc.remoting.dto.RpcResponse;
+import cn.hc.remoting.transport.netty.codec.RpcMessageDecoder;
+import cn.hc.remoting.transport.netty.codec.RpcMessageEncoder;
+import cn.hc.remoting.transport.netty.server.NettyRpcServerHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 请求合并：经过编解码器检查写出的批量请求帧，以及服务端返回的批量响应
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@RunWith(JUnitPlatform.class)
+public class RequestBatcherTest {
+
+    public interface EchoService {
+        String echo(String message);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public String echo(String message) {
+            return "echo " + message;
+        }
+    }
+
+    @Test
+    void burstIsSentAsOneBatchFrame() {
+        EmbeddedChannel client = clientChannel();
+        RequestBatcher requestBatcher = RequestBatcher.of(client, 16, 0);
+        for (long id = 1; id <= 5; id++) {
+            requestBatcher.add(request(id, SerializationTypeEnum.HESSIAN));
+        }
+        client.runPendingTasks();
+
+        List<RpcMessage> frames = decode(client);
+        assertEquals(1, frames.size());
+        assertEquals(RpcConstants.BATCH_REQUEST_TYPE, frames.get(0).getMessageType());
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, ((RpcBatchRequest) frames.get(0).getData()).getRequestIds());
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForTheWindow() {
+        EmbeddedChannel client = clientChannel();
+        RequestBatcher requestBatcher = RequestBatcher.of(client, 2, 0);
+        requestBatcher.add(request(1, SerializationTypeEnum.HESSIAN));
+        requestBatcher.add(request(2, SerializationTypeEnum.HESSIAN));
+
+        List<RpcMessage> frames = decode(client);
+        assertEquals(1, frames.size());
+        assertArrayEquals(new long[]{1, 2}, ((RpcBatchRequest) frames.get(0).getData()).getRequestIds());
+    }
+
+    @Test
+    void incompatibleRequestIsWrittenAfterThePendingBatch() {
+        EmbeddedChannel client = clientChannel();
+        RequestBatcher requestBatcher = RequestBatcher.of(client, 16, 0);
+        for (long id = 1; id <= 3; id++) {
+            requestBatcher.add(request(id, SerializationTypeEnum.HESSIAN));
+        }
+        requestBatcher.add(request(4, SerializationTypeEnum.KYRO));
+        client.runPendingTasks();
+
+        List<RpcMessage> frames = decode(client);
+        assertEquals(2, frames.size());
+        assertEquals(RpcConstants.BATCH_REQUEST_TYPE, frames.get(0).getMessageType());
+        assertArrayEquals(new long[]{1, 2, 3}, ((RpcBatchRequest) frames.get(0).getData()).getRequestIds());
+        // 只剩一个请求的批次按普通请求发送
+        assertEquals(RpcConstants.REQUEST_TYPE, frames.get(1).getMessageType());
+        assertEquals(4, frames.get(1).getRequestId());
+    }
+
+    @Test
+    void serverAnswersBatchWithBatchResponse() {
+        RpcServiceConfig rpcServiceConfig = new RpcServiceConfig();
+        rpcServiceConfig.setService(new EchoServiceImpl());
+        SingletonFactory.getInstance(ZkServiceProviderImpl.class).addService(rpcServiceConfig);
+
+        EmbeddedChannel client = clientChannel();
+        RequestBatcher requestBatcher = RequestBatcher.of(client, 16, 0);
+        for (long id = 1; id <= 3; id++) {
+            requestBatcher.add(request(id, SerializationTypeEnum.HESSIAN));
+        }
+        client.runPendingTasks();
+
+        EmbeddedChannel server = new EmbeddedChannel(new RpcMessageEncoder(), new RpcMessageDecoder(), new NettyRpcServerHandler());
+        transfer(client, server);
+        server.runPendingTasks();
+        transfer(server, client);
+
+        RpcMessage response = client.readInbound();
+        assertNull(client.readInbound());
+        assertEquals(RpcConstants.BATCH_RESPONSE_TYPE, response.getMessageType());
+        assertEquals(RpcConstants.VERSION_2, response.getVersion());
+        RpcBatchResponse rpcBatchResponse = (RpcBatchResponse) response.getData();
+        assertArrayEquals(new long[]{1, 2, 3}, rpcBatchResponse.getRequestIds());
+        List<RpcResponse<Object>> responses = rpcBatchResponse.getResponses();
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("echo m" + (i + 1), responses.get(i).getData());
+        }
+        server.finishAndReleaseAll();
+        client.finishAndReleaseAll();
+    }
+
+    private static EmbeddedChannel clientChannel() {
+        EmbeddedChannel client = new EmbeddedChannel(new RpcMessageEncoder(), new RpcMessageDecoder());
+        client.attr(RpcMessageEncoder.PROTOCOL_VERSION).set(RpcConstants.VERSION_2);
+        return client;
+    }
+
+    private static RpcMessage request(long requestId, SerializationTypeEnum codec) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .interfaceName(EchoService.class.getCanonicalName())
+                .methodName("echo")
+                .parameters(new Object[]{"m" + requestId})
+                .paramTypes(new Class<?>[]{String.class})
+                .group("")
+                .version("")
+                .build();
+        return RpcMessage.builder()
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .requestId(requestId)
+                .codec(codec.getCode())
+                .compress(CompressTypeEnum.GZIP.getCode())
+                .data(rpcRequest)
+                .build();
+    }
+
+    /**
+     * 把 from 写出的帧交给 to 读取
+     */
+    private static void transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        ByteBuf frame;
+        while ((frame = from.readOutbound()) != null) {
+            to.writeInbound(frame);
+        }
+    }
+
+    /**
+     * 按服务端的方式解码 client 写出的所有帧
+     */
+    private static List<RpcMessage> decode(EmbeddedChannel client) {
+        EmbeddedChannel server = new EmbeddedChannel(new RpcMessageDecoder());
+        transfer(client, server);
+        List<RpcMessage> frames = new ArrayList<>();
+        RpcMessage rpcMessage;
+        while ((rpcMessage = server.readInbound()) != null) {
+            frames.add(rpcMessage);
+        }
+        server.finishAndReleaseAll();
+        client.finishAndReleaseAll();
+        return frames;
+    }
+}
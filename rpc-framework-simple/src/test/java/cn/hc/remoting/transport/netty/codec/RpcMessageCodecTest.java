@@ -0,0 +1,163 @@
+package cn.hc.remoting.transport.netty.codec;
+
+import cn.hc.enums.CompressTypeEnum;
+import cn.hc.enums.SerializationTypeEnum;
+import cn.hc.remoting.constants.RpcConstants;
+import cn.hc.remoting.dto.RpcAttachments;
+import cn.hc.remoting.dto.RpcMessage;
+import cn.hc.remoting.dto.RpcRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 编码后再解码，检查 v1/v2 头部和分片帧
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@RunWith(JUnitPlatform.class)
+public class RpcMessageCodecTest {
+
+    @Test
+    void v2HeaderCarriesLongIdFlagsAndAttachments() {
+        RpcAttachments attachments = new RpcAttachments();
+        attachments.putLong(RpcAttachments.DEADLINE, 1000);
+        attachments.putString(RpcAttachments.TRACE_ID, "trace-1");
+        RpcMessage rpcMessage = request(SerializationTypeEnum.HESSIAN, CompressTypeEnum.GZIP, "hello");
+        rpcMessage.setRequestId(0x1_0000_0001L);
+        rpcMessage.setFlags(RpcConstants.FLAG_ONEWAY);
+        rpcMessage.setAttachments(attachments);
+
+        List<ByteBuf> frames = encode(rpcMessage, RpcConstants.VERSION_2);
+        assertEquals(1, frames.size());
+        assertEquals(RpcConstants.VERSION_2, headerByte(frames.get(0), 0));
+
+        RpcMessage decoded = decode(frames);
+        assertEquals(RpcConstants.VERSION_2, decoded.getVersion());
+        assertEquals(0x1_0000_0001L, decoded.getRequestId());
+        assertTrue((decoded.getFlags() & RpcConstants.FLAG_ONEWAY) != 0);
+        assertEquals("trace-1", decoded.getAttachments().getString(RpcAttachments.TRACE_ID));
+        assertTrue(decoded.getDeadline() > 0);
+        assertArrayEquals(new Object[]{"hello"}, ((RpcRequest) decoded.getData()).getParameters());
+    }
+
+    @Test
+    void connectionWithoutHandshakeUsesV1() {
+        RpcMessage rpcMessage = request(SerializationTypeEnum.HESSIAN, CompressTypeEnum.GZIP, "hello");
+        rpcMessage.setRequestId(7);
+        rpcMessage.setFlags(RpcConstants.FLAG_ONEWAY);
+
+        List<ByteBuf> frames = encode(rpcMessage, null);
+        assertEquals(1, frames.size());
+        ByteBuf frame = frames.get(0);
+        assertEquals(RpcConstants.VERSION_1, headerByte(frame, 0));
+        assertEquals(CompressTypeEnum.GZIP.getCode(), headerByte(frame, 7));
+
+        RpcMessage decoded = decode(frames);
+        assertEquals(RpcConstants.VERSION_1, decoded.getVersion());
+        assertEquals(7, decoded.getRequestId());
+        // v1 头部没有标志位和附加信息
+        assertEquals(0, decoded.getFlags());
+        assertNull(decoded.getAttachments());
+        assertArrayEquals(new Object[]{"hello"}, ((RpcRequest) decoded.getData()).getParameters());
+    }
+
+    @Test
+    void largeV2MessageIsSplitIntoChunks() {
+        String payload = payload(3 * RpcConstants.DEFAULT_CHUNK_SIZE);
+        RpcMessage rpcMessage = request(SerializationTypeEnum.HESSIAN, CompressTypeEnum.NONE, payload);
+        rpcMessage.setRequestId(42);
+
+        List<ByteBuf> frames = encode(rpcMessage, RpcConstants.VERSION_2);
+        assertTrue(frames.size() > 1, "frames: " + frames.size());
+        for (ByteBuf frame : frames) {
+            assertEquals(RpcConstants.CHUNK_TYPE, headerByte(frame, 5));
+        }
+
+        RpcMessage decoded = decode(frames);
+        assertEquals(RpcConstants.REQUEST_TYPE, decoded.getMessageType());
+        assertEquals(42, decoded.getRequestId());
+        assertEquals(payload, ((RpcRequest) decoded.getData()).getParameters()[0]);
+    }
+
+    @Test
+    void largeV1MessageIsNotChunked() {
+        String payload = payload(2 * RpcConstants.DEFAULT_CHUNK_SIZE);
+        RpcMessage rpcMessage = request(SerializationTypeEnum.HESSIAN, CompressTypeEnum.NONE, payload);
+
+        List<ByteBuf> frames = encode(rpcMessage, RpcConstants.VERSION_1);
+        assertEquals(1, frames.size());
+        assertEquals(RpcConstants.REQUEST_TYPE, headerByte(frames.get(0), 5));
+        assertEquals(payload, ((RpcRequest) decode(frames).getData()).getParameters()[0]);
+    }
+
+    private static RpcMessage request(SerializationTypeEnum codec, CompressTypeEnum compress, String argument) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .interfaceName("cn.hc.HelloService")
+                .methodName("hello")
+                .parameters(new Object[]{argument})
+                .paramTypes(new Class<?>[]{String.class})
+                .group("")
+                .version("")
+                .build();
+        return RpcMessage.builder()
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(codec.getCode())
+                .compress(compress.getCode())
+                .data(rpcRequest)
+                .build();
+    }
+
+    private static String payload(int length) {
+        StringBuilder payload = new StringBuilder(length);
+        for (int i = 0; payload.length() < length; i++) {
+            payload.append(i).append(',');
+        }
+        return payload.toString();
+    }
+
+    /**
+     * 读取魔数之后第 offset 个字节：0 为版本，5 为消息类型，7 为压缩方式
+     */
+    private static byte headerByte(ByteBuf frame, int offset) {
+        return frame.getByte(frame.readerIndex() + RpcConstants.MAGIC_NUMBER.length + offset);
+    }
+
+    /**
+     * 按连接上协商得到的版本编码，version 为 null 时表示未握手
+     */
+    private static List<ByteBuf> encode(RpcMessage rpcMessage, Byte version) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcMessageEncoder());
+        channel.attr(RpcMessageEncoder.PROTOCOL_VERSION).set(version);
+        assertTrue(channel.writeOutbound(rpcMessage));
+        List<ByteBuf> frames = new ArrayList<>();
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            frames.add(frame);
+        }
+        channel.finishAndReleaseAll();
+        return frames;
+    }
+
+    private static RpcMessage decode(List<ByteBuf> frames) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcMessageDecoder());
+        for (ByteBuf frame : frames) {
+            channel.writeInbound(frame);
+        }
+        RpcMessage decoded = channel.readInbound();
+        assertNull(channel.readInbound());
+        channel.finishAndReleaseAll();
+        return decoded;
+    }
+}
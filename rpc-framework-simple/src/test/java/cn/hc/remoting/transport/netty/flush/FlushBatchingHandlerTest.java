@@ -0,0 +1,159 @@
+package cn.hc.remoting.transport.netty.flush;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 合并刷新：flush 推迟到事件循环的下一轮、读取结束或攒够帧数时才真正执行
+ *
+ * @author HCong
+ * @create 2022/8/8
+ */
+@RunWith(JUnitPlatform.class)
+public class FlushBatchingHandlerTest {
+    private static final int FRAME_SIZE = 16;
+
+    /**
+     * EmbeddedChannel 每次写出前都会执行已经到期的任务，因此这里用 delayMicros 把刷新推迟到之后
+     */
+    @Test
+    void flushIsDeferredUntilTheDelayExpires() throws Exception {
+        FlushStatistics statistics = new FlushStatistics();
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushBatchingHandler(64, 100_000, statistics));
+        channel.writeAndFlush(frame());
+        channel.writeAndFlush(frame());
+        assertNull(channel.readOutbound());
+
+        Thread.sleep(200);
+        channel.runPendingTasks();
+        assertOutbound(channel, 2);
+        assertEquals(1, statistics.getFlushCount());
+        assertEquals(2, statistics.getMessageCount());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void flushesImmediatelyWhenMaxMessagesArePending() {
+        FlushStatistics statistics = new FlushStatistics();
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushBatchingHandler(3, TimeUnit.SECONDS.toMicros(10), statistics));
+        channel.writeAndFlush(frame());
+        channel.writeAndFlush(frame());
+        assertNull(channel.readOutbound());
+        channel.writeAndFlush(frame());
+
+        assertOutbound(channel, 3);
+        assertEquals(3, statistics.getMaxBatchSize());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void flushesOnReadComplete() {
+        FlushStatistics statistics = new FlushStatistics();
+        EmbeddedChannel channel = new EmbeddedChannel(new FlushBatchingHandler(64, 0, statistics), new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                // 模拟服务端在读取中写回响应
+                ctx.writeAndFlush(msg);
+            }
+        });
+        channel.pipeline().fireChannelRead(frame());
+        channel.pipeline().fireChannelRead(frame());
+        assertNull(channel.readOutbound());
+
+        channel.pipeline().fireChannelReadComplete();
+        assertOutbound(channel, 2);
+        assertEquals(1, statistics.getFlushCount());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void coalescesConcurrentWritesOverNio() throws Exception {
+        int threads = 8;
+        int framesPerThread = 20000;
+        int maxMessages = 64;
+        AtomicLong receivedBytes = new AtomicLong();
+        FlushStatistics statistics = new FlushStatistics();
+        NioEventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            Channel serverChannel = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            receivedBytes.addAndGet(((ByteBuf) msg).readableBytes());
+                            ((ByteBuf) msg).release();
+                        }
+                    })
+                    .bind("127.0.0.1", 0).sync().channel();
+            Channel channel = new Bootstrap().group(group).channel(NioSocketChannel.class)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new FlushBatchingHandler(maxMessages, 0, statistics));
+                        }
+                    })
+                    .connect(serverChannel.localAddress()).sync().channel();
+
+            Thread[] writers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < framesPerThread; i++) {
+                        channel.writeAndFlush(frame());
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            channel.close().sync();
+
+            long expectedBytes = (long) threads * framesPerThread * FRAME_SIZE;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (receivedBytes.get() < expectedBytes && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(expectedBytes, receivedBytes.get());
+            assertEquals((long) threads * framesPerThread, statistics.getMessageCount());
+            assertTrue(statistics.getMaxBatchSize() <= maxMessages, statistics.toString());
+            // 每次 writeAndFlush 都刷新时平均为 1
+            assertTrue(statistics.getAverageBatchSize() >= 8, statistics.toString());
+            serverChannel.close().sync();
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    private static ByteBuf frame() {
+        return Unpooled.wrappedBuffer(new byte[FRAME_SIZE]);
+    }
+
+    private static void assertOutbound(EmbeddedChannel channel, int frames) {
+        for (int i = 0; i < frames; i++) {
+            ByteBuf frame = channel.readOutbound();
+            assertNotNull(frame);
+            frame.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+}